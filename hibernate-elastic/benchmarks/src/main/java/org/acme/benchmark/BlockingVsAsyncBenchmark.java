@@ -0,0 +1,58 @@
+package org.acme.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same view searches through the blocking endpoints and their non-blocking counterparts, with more concurrent
+ * clients than worker threads. Start the application with a small worker pool, e.g.
+ * {@code -Dquarkus.thread-pool.max-threads=16}, and raise the client count with {@code -t} to find where each
+ * variant stops scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(64)
+@Fork(1)
+public class BlockingVsAsyncBenchmark {
+
+    @Param("10")
+    public int size;
+
+    @Benchmark
+    public byte[] blockingBooks(LibraryState library) {
+        return library.client.get("/library/book/search/view?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] asyncBooks(LibraryState library) {
+        return library.client.get("/library/book/search/async?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] blockingAuthors(LibraryState library) {
+        return library.client.get("/library/author/search/view?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] asyncAuthors(LibraryState library) {
+        return library.client.get("/library/author/search/async?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+}
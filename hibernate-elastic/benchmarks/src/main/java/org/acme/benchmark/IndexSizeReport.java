@@ -0,0 +1,55 @@
+package org.acme.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Collections;
+
+/**
+ * Prints the size of the library indexes and their indexing throughput, to compare mapping, analyzer and index
+ * settings changes alongside the query benchmarks.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar org.acme.benchmark.IndexSizeReport [elasticsearch-url]}
+ */
+public class IndexSizeReport {
+
+    static final String[] INDEXES = {"author-read", "book-read"};
+
+    public static void main(String[] args) {
+        LibraryClient elasticsearch = new LibraryClient(args.length > 0 ? args[0] : "http://localhost:9200");
+        // count documents still waiting for the periodic refresh
+        elasticsearch.form("POST", "/_refresh", Collections.emptyMap());
+        System.out.printf("%-12s %10s %14s %10s %16s%n", "index", "docs", "store bytes", "segments", "terms bytes");
+        for (String index : INDEXES) {
+            JsonNode primaries = elasticsearch.getJson("/" + index + "/_stats/docs,store,segments")
+                    .path("_all").path("primaries");
+            System.out.printf("%-12s %10d %14d %10d %16d%n", index,
+                    primaries.path("docs").path("count").asLong(),
+                    primaries.path("store").path("size_in_bytes").asLong(),
+                    primaries.path("segments").path("count").asLong(),
+                    primaries.path("segments").path("terms_memory_in_bytes").asLong());
+        }
+
+        // since the creation of the index, so after a restart this is the mass indexing on startup
+        System.out.printf("%n%-12s %7s %9s %10s %12s %12s %10s%n", "index", "shards", "refresh", "indexed",
+                "index ms", "docs/s", "refreshes");
+        for (String index : INDEXES) {
+            JsonNode settings = elasticsearch.getJson("/" + index + "/_settings?include_defaults=true").elements().next();
+            JsonNode primaries = elasticsearch.getJson("/" + index + "/_stats/indexing,refresh")
+                    .path("_all").path("primaries");
+            long indexed = primaries.path("indexing").path("index_total").asLong();
+            long indexMillis = primaries.path("indexing").path("index_time_in_millis").asLong();
+            System.out.printf("%-12s %7s %9s %10d %12d %12.0f %10d%n", index,
+                    setting(settings, "number_of_shards"), setting(settings, "refresh_interval"),
+                    indexed, indexMillis, indexMillis == 0 ? 0 : indexed * 1000.0 / indexMillis,
+                    primaries.path("refresh").path("total").asLong());
+        }
+    }
+
+    /**
+     * The value of an index setting, as set on the index or else the default of the cluster.
+     */
+    private static String setting(JsonNode settings, String name) {
+        JsonNode value = settings.path("settings").path("index").path(name);
+        return value.isMissingNode() ? settings.path("defaults").path("index").path(name).asText() : value.asText();
+    }
+}
@@ -0,0 +1,115 @@
+package org.acme.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Minimal blocking HTTP client for the {@code /library} endpoints of a running application.
+ */
+public class LibraryClient {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String baseUrl;
+
+    public LibraryClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    public byte[] get(String path) {
+        return exchange("GET", path, null, null);
+    }
+
+    public JsonNode getJson(String path) {
+        try {
+            return MAPPER.readTree(get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a newline-delimited JSON response, such as the one of the {@code stream} endpoints.
+     */
+    public List<JsonNode> getJsonLines(String path) {
+        try {
+            return MAPPER.readerFor(JsonNode.class).<JsonNode>readValues(get(path)).readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public byte[] delete(String path) {
+        return exchange("DELETE", path, null, null);
+    }
+
+    public byte[] form(String method, String path, Map<String, String> fields) {
+        StringJoiner body = new StringJoiner("&");
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            body.add(encode(field.getKey()) + "=" + encode(field.getValue()));
+        }
+        return exchange(method, path, "application/x-www-form-urlencoded",
+                body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public JsonNode postJson(String path, Object body) {
+        try {
+            return MAPPER.readTree(exchange("POST", path, "application/json", MAPPER.writeValueAsBytes(body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] exchange(String method, String path, String contentType, byte[] body) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status >= 300) {
+                throw new IllegalStateException(method + " " + path + " returned " + status);
+            }
+            try (InputStream input = connection.getInputStream()) {
+                return readAll(input);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(method + " " + path + " failed", e);
+        }
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
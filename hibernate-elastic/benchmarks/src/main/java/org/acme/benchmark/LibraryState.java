@@ -0,0 +1,74 @@
+package org.acme.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application under test and its synthetic library of {@code authors} x {@code booksPerAuthor} books,
+ * topped up once per trial if it holds fewer authors than requested.
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+
+    @Param("http://localhost:8080")
+    public String baseUrl;
+
+    @Param("1000")
+    public int authors;
+
+    @Param("10")
+    public int booksPerAuthor;
+
+    @Param("42")
+    public long seed;
+
+    /** How long to let the asynchronous indexing queues drain after seeding books. */
+    @Param("5")
+    public int settleSeconds;
+
+    public LibraryClient client;
+
+    public List<Long> authorIds;
+
+    @Setup
+    public void seed() throws InterruptedException {
+        client = new LibraryClient(baseUrl);
+        authorIds = SyntheticLibrary.authorIds(client);
+        int existing = authorIds.size();
+        if (existing < authors) {
+            SyntheticLibrary library = new SyntheticLibrary(client, seed);
+            library.seedAuthors(authors - existing);
+            awaitAuthorsIndexed();
+            // ids are sorted and generated from a sequence: the new authors come last
+            library.seedBooks(authorIds.subList(existing, authorIds.size()), booksPerAuthor);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settleSeconds));
+        }
+    }
+
+    /**
+     * Bulk imports are indexed asynchronously, so the new authors are not searchable right away.
+     */
+    private void awaitAuthorsIndexed() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while ((authorIds = SyntheticLibrary.authorIds(client)).size() < authors) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Only " + authorIds.size() + " of " + authors + " authors got indexed");
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    public long randomAuthorId() {
+        return authorIds.get(ThreadLocalRandom.current().nextInt(authorIds.size()));
+    }
+
+    public static String randomWord() {
+        return SyntheticLibrary.WORDS[ThreadLocalRandom.current().nextInt(SyntheticLibrary.WORDS.length)];
+    }
+}
@@ -0,0 +1,216 @@
+package org.acme.benchmark;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the library endpoints, for sustained mixed read and write traffic.
+ * <p>
+ * Requests are started at a fixed arrival rate whatever the response times, and each latency is measured from the
+ * time the request was scheduled to start rather than from the time a worker got to it. A slow server therefore
+ * shows up as queueing in the reported latencies instead of silently lowering the load (coordinated omission);
+ * the service time, from the actual start, is reported alongside. Failed requests count in the latencies too, a
+ * timeout being as slow for the user as a response; requests dropped because the queue was full have no latency and
+ * are reported next to the percentiles. Percentiles are printed for every report interval, which makes long runs
+ * usable as soak tests, and for the whole run once the warmup is over.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar org.acme.benchmark.LoadTest [name=value...]}, see {@link #DEFAULTS}.
+ */
+public class LoadTest {
+
+    static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("baseUrl", "http://localhost:8080");
+        DEFAULTS.put("authors", "1000");
+        DEFAULTS.put("booksPerAuthor", "10");
+        DEFAULTS.put("seed", "42");
+        /* requests started per second */
+        DEFAULTS.put("rate", "200");
+        /* poisson or uniform inter-arrival times */
+        DEFAULTS.put("arrivals", "poisson");
+        DEFAULTS.put("warmup", "PT30S");
+        DEFAULTS.put("duration", "PT2M");
+        DEFAULTS.put("reportInterval", "PT10S");
+        /* requests in flight at most; the others wait in the queue, and count in their latency */
+        DEFAULTS.put("concurrency", "64");
+        /* requests waiting at most; the others are dropped and reported */
+        DEFAULTS.put("queue", "10000");
+        /* exponent of the Zipf distribution of query patterns and authors, 0 for uniform */
+        DEFAULTS.put("skew", "1.0");
+        DEFAULTS.put("mix", Workload.DEFAULT_MIX);
+    }
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final Map<String, OperationStats> stats = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2 || !DEFAULTS.containsKey(parts[0])) {
+                throw new IllegalArgumentException("Invalid argument " + arg + ", expected one of " + DEFAULTS.keySet());
+            }
+            settings.put(parts[0], parts[1]);
+        }
+        new LoadTest().run(settings);
+    }
+
+    private void run(Map<String, String> settings) throws InterruptedException {
+        LibraryState library = new LibraryState();
+        library.baseUrl = settings.get("baseUrl");
+        library.authors = Integer.parseInt(settings.get("authors"));
+        library.booksPerAuthor = Integer.parseInt(settings.get("booksPerAuthor"));
+        library.seed = Long.parseLong(settings.get("seed"));
+        library.settleSeconds = 5;
+        library.seed();
+
+        long seed = library.seed;
+        Workload workload = new Workload(library.authorIds, settings.get("mix"),
+                Double.parseDouble(settings.get("skew")), seed);
+        for (String operation : workload.operations()) {
+            stats.put(operation, new OperationStats());
+        }
+        double rate = Double.parseDouble(settings.get("rate"));
+        boolean poisson = "poisson".equals(settings.get("arrivals"));
+        long warmupNanos = Duration.parse(settings.get("warmup")).toNanos();
+        long durationNanos = Duration.parse(settings.get("duration")).toNanos();
+        long reportNanos = Duration.parse(settings.get("reportInterval")).toNanos();
+        int concurrency = Integer.parseInt(settings.get("concurrency"));
+
+        System.out.printf("Open-loop load at %.0f requests/s (%s arrivals), %d in flight at most, mix %s%n",
+                rate, settings.get("arrivals"), concurrency, settings.get("mix"));
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Integer.parseInt(settings.get("queue"))));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        reporter.scheduleAtFixedRate(() -> report(System.nanoTime() >= measureFrom),
+                reportNanos, reportNanos, TimeUnit.NANOSECONDS);
+
+        Random random = new Random(seed);
+        long end = measureFrom + durationNanos;
+        double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long intended = start;
+        while (intended < end) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Workload.Call call = workload.next(random);
+            long scheduledAt = intended;
+            try {
+                workers.execute(() -> send(library.client, call, scheduledAt));
+            } catch (RejectedExecutionException e) {
+                stats.get(call.operation).dropped.increment();
+            }
+            intended += poisson ? (long) (-Math.log(1 - random.nextDouble()) * meanIntervalNanos) : (long) meanIntervalNanos;
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.out.println("Some requests were still running after one minute, they are not reported");
+            workers.shutdownNow();
+        }
+        reporter.shutdownNow();
+        report(true);
+        summary(durationNanos);
+    }
+
+    private void send(LibraryClient client, Workload.Call call, long scheduledAt) {
+        OperationStats operation = stats.get(call.operation);
+        long startedAt = System.nanoTime();
+        try {
+            call.send.accept(client);
+        } catch (RuntimeException e) {
+            operation.errors.increment();
+            operation.lastError = e.getMessage();
+        }
+        long completedAt = System.nanoTime();
+        operation.responseTime.recordValue(Math.min(HIGHEST_LATENCY_MICROS, (completedAt - scheduledAt) / 1000));
+        operation.serviceTime.recordValue(Math.min(HIGHEST_LATENCY_MICROS, (completedAt - startedAt) / 1000));
+    }
+
+    /**
+     * Prints the percentiles of the last interval, and adds them to the totals once the warmup is over.
+     */
+    private synchronized void report(boolean measuring) {
+        System.out.printf("%n%-18s %8s %7s %8s %10s %10s %10s %10s %12s%n", measuring ? "interval" : "warmup interval",
+                "count", "errors", "dropped", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            Histogram response = operation.responseTime.getIntervalHistogram();
+            Histogram service = operation.serviceTime.getIntervalHistogram();
+            long errors = operation.errors.sumThenReset();
+            long dropped = operation.dropped.sumThenReset();
+            if (measuring) {
+                operation.totalResponseTime.add(response);
+                operation.totalServiceTime.add(service);
+                operation.totalErrors += errors;
+                operation.totalDropped += dropped;
+            }
+            System.out.printf("%-18s %8d %7d %8d %10.1f %10.1f %10.1f %10.1f %12.1f%n", entry.getKey(),
+                    response.getTotalCount(), errors, dropped, ms(response, 50), ms(response, 99), ms(response, 99.9),
+                    response.getMaxValue() / 1000.0, ms(service, 99));
+        }
+    }
+
+    private void summary(long durationNanos) {
+        double seconds = durationNanos / 1e9;
+        Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        System.out.printf("%nResponse times from the intended start, over the measured %.0f s%n", seconds);
+        System.out.printf("%-18s %8s %7s %8s %8s %9s %9s %9s %9s %9s%n", "operation", "count", "errors", "dropped",
+                "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            all.add(operation.totalResponseTime);
+            line(entry.getKey(), operation.totalResponseTime, operation.totalErrors, operation.totalDropped, seconds);
+            if (operation.lastError != null) {
+                System.out.printf("%-18s last error: %s%n", "", operation.lastError);
+            }
+        }
+        long errors = stats.values().stream().mapToLong(operation -> operation.totalErrors).sum();
+        long dropped = stats.values().stream().mapToLong(operation -> operation.totalDropped).sum();
+        line("all", all, errors, dropped, seconds);
+        if (dropped > 0) {
+            System.out.printf("%d requests were dropped because the queue was full, their latency is not in the"
+                    + " percentiles: raise concurrency or queue%n", dropped);
+        }
+    }
+
+    private static void line(String name, Histogram histogram, long errors, long dropped, double seconds) {
+        System.out.printf("%-18s %8d %7d %8d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, histogram.getTotalCount(),
+                errors, dropped, histogram.getTotalCount() / seconds, ms(histogram, 50), ms(histogram, 90), ms(histogram, 99),
+                ms(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double ms(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static class OperationStats {
+
+        final Recorder responseTime = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+        final Recorder serviceTime = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final Histogram totalResponseTime = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        final Histogram totalServiceTime = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        long totalErrors;
+        long totalDropped;
+        volatile String lastError;
+    }
+}
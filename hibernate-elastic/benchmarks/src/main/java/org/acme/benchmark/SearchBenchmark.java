@@ -0,0 +1,147 @@
+package org.acme.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per query shape of {@code LibraryResource}. Patterns are drawn at random from the vocabulary
+ * of the synthetic library, so run the application with {@code -Dlibrary.cache.max-entries=0} to measure the
+ * queries rather than the search result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(4)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param("10")
+    public int size;
+
+    @Param("20")
+    public int pageSize;
+
+    @Benchmark
+    public byte[] simpleQueryString(LibraryState library) {
+        return library.client.get("/library/book/search?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord() + " " + LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] simpleQueryStringView(LibraryState library) {
+        return library.client.get("/library/book/search/view?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord() + " " + LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] authorSearch(LibraryState library) {
+        return library.client.get("/library/author/search?size=" + size + "&pattern="
+                + LibraryClient.encode(SyntheticLibrary.pick(ThreadLocalRandom.current(), SyntheticLibrary.LAST_NAMES)));
+    }
+
+    @Benchmark
+    public byte[] wildcard(LibraryState library) {
+        return library.client.get("/library/book/wildcard/search?size=" + size + "&pattern="
+                + LibraryClient.encode(infix(LibraryState.randomWord())));
+    }
+
+    @Benchmark
+    public byte[] phraseSlop(LibraryState library) {
+        return library.client.get("/library/book/phrase/slop/search?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord() + " " + LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] fuzzy(LibraryState library) {
+        return library.client.get("/library/book/fuzzy/search?size=" + size + "&pattern="
+                + LibraryClient.encode(typo(fuzzyWord())));
+    }
+
+    @Benchmark
+    public byte[] except(LibraryState library) {
+        return library.client.get("/library/book/except/search?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] suggest(LibraryState library) {
+        String word = LibraryState.randomWord();
+        return library.client.get("/library/book/suggest?prefix="
+                + LibraryClient.encode(word.substring(0, 1 + ThreadLocalRandom.current().nextInt(word.length()))));
+    }
+
+    @Benchmark
+    public byte[] facets(LibraryState library) {
+        return library.client.get("/library/book/facets?size=" + size + "&pattern="
+                + LibraryClient.encode(LibraryState.randomWord()));
+    }
+
+    @Benchmark
+    public byte[] sortedMatchAll(LibraryState library) {
+        return library.client.get("/library/books/view");
+    }
+
+    @Benchmark
+    public byte[] page(LibraryState library) {
+        int pages = Math.max(1, library.authors * library.booksPerAuthor / pageSize);
+        int page = 1 + ThreadLocalRandom.current().nextInt(Math.min(pages, 10_000 / pageSize));
+        return library.client.get("/library/books/page?page=" + page + "&limit=" + pageSize);
+    }
+
+    @Benchmark
+    public JsonNode keysetFirstPages(LibraryState library) {
+        JsonNode page = library.client.getJson("/library/books/keyset?limit=" + pageSize);
+        for (int i = 1; i < 5 && page.hasNonNull("next"); i++) {
+            page = library.client.getJson("/library/books/keyset?limit=" + pageSize
+                    + "&after=" + page.get("next").asText());
+        }
+        return page;
+    }
+
+    /**
+     * {@code *ount*}: a part of a word, at least three letters long as the query guard requires, so that it goes
+     * through the trigram index.
+     */
+    static String infix(String word) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int length = 3 + random.nextInt(word.length() - 2);
+        int start = random.nextInt(word.length() - length + 1);
+        return "*" + word.substring(start, start + length) + "*";
+    }
+
+    /**
+     * A word of at least four letters, the shortest fuzzy term the query guard accepts.
+     */
+    static String fuzzyWord() {
+        String word = LibraryState.randomWord();
+        while (word.length() < 4) {
+            word = LibraryState.randomWord();
+        }
+        return word;
+    }
+
+    /**
+     * Replaces one letter after the exact prefix of the fuzzy endpoint, which is within its edit distance.
+     */
+    static String typo(String word) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] letters = word.toCharArray();
+        letters[3 + random.nextInt(letters.length - 3)] = (char) ('a' + random.nextInt(26));
+        return new String(letters);
+    }
+}
@@ -0,0 +1,124 @@
+package org.acme.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A deterministic synthetic library of authors and their books, seeded through the bulk import endpoints.
+ * <p>
+ * Titles are drawn from a small English vocabulary so that every query shape has matches, and the same seed
+ * always produces the same library.
+ */
+public class SyntheticLibrary {
+
+    static final String[] WORDS = {
+            "adventure", "ancient", "autumn", "bridge", "castle", "city", "dark", "dream", "empire", "evening",
+            "forest", "garden", "golden", "harbor", "heart", "hidden", "island", "journey", "kingdom", "letters",
+            "light", "lost", "memory", "midnight", "mountain", "night", "ocean", "orchard", "painted", "quiet",
+            "river", "road", "secret", "shadow", "silent", "silver", "sky", "spring", "stone", "storm",
+            "summer", "sun", "tale", "tower", "valley", "village", "voyage", "war", "water", "winter"
+    };
+
+    static final String[] FIRST_NAMES = {
+            "Anna", "Charles", "Elena", "George", "Hannah", "Isaac", "Jane", "Leo", "Maria", "Oscar",
+            "Paul", "Ruth", "Stephen", "Virginia", "William"
+    };
+
+    static final String[] LAST_NAMES = {
+            "Austen", "Bond", "Dickens", "Eliot", "Hardy", "Irving", "Joyce", "King", "Orwell", "Rowling",
+            "Shelley", "Tolstoy", "Twain", "Wells", "Woolf"
+    };
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final LibraryClient client;
+
+    private final Random random;
+
+    public SyntheticLibrary(LibraryClient client, long seed) {
+        this.client = client;
+        this.random = new Random(seed);
+    }
+
+    public void seedAuthors(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < count; i++) {
+            rows.add(author(random));
+            if (rows.size() == CHUNK_SIZE) {
+                importRows("/library/authors/bulk", rows);
+            }
+        }
+        importRows("/library/authors/bulk", rows);
+    }
+
+    public void seedBooks(List<Long> authorIds, int booksPerAuthor) {
+        List<Map<String, Object>> rows = new ArrayList<>(CHUNK_SIZE);
+        for (Long authorId : authorIds) {
+            for (int i = 0; i < booksPerAuthor; i++) {
+                rows.add(book(random, authorId));
+                if (rows.size() == CHUNK_SIZE) {
+                    importRows("/library/books/bulk", rows);
+                }
+            }
+        }
+        importRows("/library/books/bulk", rows);
+    }
+
+    static Map<String, Object> author(Random random) {
+        Map<String, Object> author = new LinkedHashMap<>();
+        author.put("firstName", pick(random, FIRST_NAMES));
+        author.put("lastName", pick(random, LAST_NAMES) + random.nextInt(1000));
+        return author;
+    }
+
+    static Map<String, Object> book(Random random, long authorId) {
+        Map<String, Object> book = new LinkedHashMap<>();
+        book.put("title", title(random));
+        book.put("authorId", authorId);
+        return book;
+    }
+
+    static String title(Random random) {
+        StringBuilder title = new StringBuilder(pick(random, WORDS));
+        for (int words = 1 + random.nextInt(4); words > 0; words--) {
+            title.append(' ').append(pick(random, WORDS));
+        }
+        return title.toString();
+    }
+
+    static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * The ids of the indexed authors, streamed: {@code authors/view} stops at the maximum result window.
+     */
+    static List<Long> authorIds(LibraryClient client) {
+        return ids(client.getJsonLines("/library/authors/stream"));
+    }
+
+    private static List<Long> ids(List<JsonNode> authors) {
+        List<Long> ids = new ArrayList<>(authors.size());
+        for (JsonNode author : authors) {
+            ids.add(author.get("id").asLong());
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    private void importRows(String path, List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        JsonNode result = client.postJson(path, rows);
+        if (result.get("errors").size() > 0) {
+            throw new IllegalStateException("Seeding " + path + " rejected rows: " + result.get("errors"));
+        }
+        rows.clear();
+    }
+}
@@ -0,0 +1,214 @@
+package org.acme.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * A weighted mix of read and write requests against the library endpoints, with query patterns drawn from the
+ * vocabulary and names of the {@link SyntheticLibrary} following a Zipf distribution.
+ * <p>
+ * Mixes are written {@code name=weight,...}, for instance {@code bookSearch=60,addBook=10}; see {@link #DEFAULT_MIX}
+ * for the operation names.
+ */
+public class Workload {
+
+    static final String DEFAULT_MIX = "authorSearch=20,bookSearch=25,bookView=10,unified=10,authorById=5,"
+            + "wildcard=4,fuzzy=4,phrase=4,addBook=9,updateAuthor=5,addAndDeleteBook=4";
+
+    private final List<Long> authorIds;
+    private final List<String> words;
+    private final List<String> names;
+    private final Zipf wordRanks;
+    private final Zipf nameRanks;
+    private final Zipf authorRanks;
+
+    private final List<String> operations = new ArrayList<>();
+    private final int[] cumulativeWeights;
+
+    public Workload(List<Long> authorIds, String mix, double skew, long seed) {
+        Random shuffle = new Random(seed);
+        this.authorIds = shuffled(authorIds, shuffle);
+        this.words = shuffled(Arrays.asList(SyntheticLibrary.WORDS), shuffle);
+        List<String> allNames = new ArrayList<>(Arrays.asList(SyntheticLibrary.FIRST_NAMES));
+        allNames.addAll(Arrays.asList(SyntheticLibrary.LAST_NAMES));
+        this.names = shuffled(allNames, shuffle);
+        this.wordRanks = new Zipf(words.size(), skew);
+        this.nameRanks = new Zipf(names.size(), skew);
+        this.authorRanks = new Zipf(this.authorIds.size(), skew);
+
+        Map<String, Integer> weights = parseMix(mix);
+        cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            total += weight.getValue();
+            cumulativeWeights[operations.size()] = total;
+            operations.add(weight.getKey());
+        }
+        for (String operation : operations) {
+            // fail on typos before the run starts
+            prepare(operation, new Random(seed));
+        }
+    }
+
+    /**
+     * Draws the next request of the mix, with its parameters.
+     */
+    public Call next(Random random) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = 0;
+        while (cumulativeWeights[index] <= draw) {
+            index++;
+        }
+        return prepare(operations.get(index), random);
+    }
+
+    public List<String> operations() {
+        return operations;
+    }
+
+    private Call prepare(String operation, Random random) {
+        switch (operation) {
+            case "authorSearch":
+                return get(operation, "/library/author/search?pattern=" + name(random));
+            case "bookSearch":
+                return get(operation, "/library/book/search?pattern=" + words(random, 1 + random.nextInt(2)));
+            case "bookView":
+                return get(operation, "/library/book/search/view?pattern=" + words(random, 1 + random.nextInt(2)));
+            case "unified":
+                return get(operation, "/library/search?pattern=" + LibraryClient.encode(name(random) + " " + word(random)));
+            case "authorById":
+                return get(operation, "/library/author/" + authorId(random));
+            case "wildcard":
+                return get(operation, "/library/book/wildcard/search?pattern=" + LibraryClient.encode(infix(random)));
+            case "fuzzy":
+                return get(operation, "/library/book/fuzzy/search?pattern=" + typo(random));
+            case "phrase":
+                return get(operation, "/library/book/phrase/slop/search?pattern=" + words(random, 2));
+            case "addBook": {
+                Map<String, String> book = fields(SyntheticLibrary.book(random, authorId(random)));
+                return new Call(operation, client -> client.form("PUT", "/library/book", book));
+            }
+            case "updateAuthor": {
+                long id = authorId(random);
+                Map<String, String> author = fields(SyntheticLibrary.author(random));
+                return new Call(operation, client -> client.form("POST", "/library/author/" + id, author));
+            }
+            case "addAndDeleteBook": {
+                long authorId = authorId(random);
+                String title = "disposable" + Math.abs(random.nextLong());
+                return new Call(operation, client -> addAndDeleteBook(client, authorId, title));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation + ", expected one of " + DEFAULT_MIX);
+        }
+    }
+
+    private static Call get(String operation, String path) {
+        return new Call(operation, client -> client.get(path));
+    }
+
+    private static void addAndDeleteBook(LibraryClient client, long authorId, String title) {
+        Map<String, String> book = new LinkedHashMap<>();
+        book.put("title", title);
+        book.put("authorId", String.valueOf(authorId));
+        client.form("PUT", "/library/book?refresh=true", book);
+        long bookId = client.getJson("/library/book/search/view?size=1&pattern=" + title).get(0).get("id").asLong();
+        client.delete("/library/book/" + bookId);
+    }
+
+    private String word(Random random) {
+        return words.get(wordRanks.next(random));
+    }
+
+    private String words(Random random, int count) {
+        StringBuilder pattern = new StringBuilder(word(random));
+        for (int i = 1; i < count; i++) {
+            pattern.append(' ').append(word(random));
+        }
+        return LibraryClient.encode(pattern.toString());
+    }
+
+    private String name(Random random) {
+        return names.get(nameRanks.next(random));
+    }
+
+    private long authorId(Random random) {
+        return authorIds.get(authorRanks.next(random));
+    }
+
+    /**
+     * {@code *ount*}: a part of a word, at least three letters long so that it goes through the trigram index.
+     */
+    private String infix(Random random) {
+        String word = word(random);
+        int length = 3 + random.nextInt(word.length() - 2);
+        int start = random.nextInt(word.length() - length + 1);
+        return "*" + word.substring(start, start + length) + "*";
+    }
+
+    /**
+     * A word of at least four letters, with one letter replaced after the exact prefix of the fuzzy endpoint.
+     */
+    private String typo(Random random) {
+        String word = word(random);
+        while (word.length() < 4) {
+            word = word(random);
+        }
+        char[] letters = word.toCharArray();
+        letters[3 + random.nextInt(letters.length - 3)] = (char) ('a' + random.nextInt(26));
+        return new String(letters);
+    }
+
+    private static Map<String, String> fields(Map<String, Object> row) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : row.entrySet()) {
+            fields.put(field.getKey(), String.valueOf(field.getValue()));
+        }
+        return fields;
+    }
+
+    static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry + ", expected name=weight");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(parts[0].trim(), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("The mix " + mix + " has no operation with a positive weight");
+        }
+        return weights;
+    }
+
+    private static <T> List<T> shuffled(List<T> values, Random random) {
+        List<T> shuffled = new ArrayList<>(values);
+        Collections.shuffle(shuffled, random);
+        return shuffled;
+    }
+
+    /**
+     * One request of the mix, its parameters already drawn.
+     */
+    public static class Call {
+
+        final String operation;
+
+        final Consumer<LibraryClient> send;
+
+        Call(String operation, Consumer<LibraryClient> send) {
+            this.operation = operation;
+            this.send = send;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.acme.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per write path of {@code LibraryResource}, including the bulk imports.
+ * <p>
+ * These benchmarks grow the library; run them against a fresh database when comparing search results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(4)
+@Fork(1)
+public class WriteBenchmark {
+
+    /** Wait for each change to be searchable before the response, as with {@code ?refresh=true}. */
+    @Param("false")
+    public boolean refresh;
+
+    @Param("100")
+    public int bulkSize;
+
+    @Benchmark
+    public byte[] addAuthor(LibraryState library) {
+        return library.client.form("PUT", "/library/author?refresh=" + refresh,
+                fields(SyntheticLibrary.author(ThreadLocalRandom.current())));
+    }
+
+    @Benchmark
+    public byte[] addBook(LibraryState library) {
+        return library.client.form("PUT", "/library/book?refresh=" + refresh,
+                fields(SyntheticLibrary.book(ThreadLocalRandom.current(), library.randomAuthorId())));
+    }
+
+    @Benchmark
+    public byte[] updateAuthor(LibraryState library) {
+        return library.client.form("POST", "/library/author/" + library.randomAuthorId() + "?refresh=" + refresh,
+                fields(SyntheticLibrary.author(ThreadLocalRandom.current())));
+    }
+
+    /**
+     * Adds a book and deletes it again, so that every delete hits an existing book.
+     */
+    @Benchmark
+    public byte[] addAndDeleteBook(LibraryState library) {
+        long authorId = library.randomAuthorId();
+        String title = "disposable" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        Map<String, Object> book = new LinkedHashMap<>();
+        book.put("title", title);
+        book.put("authorId", authorId);
+        library.client.form("PUT", "/library/book?refresh=true", fields(book));
+        long bookId = library.client.getJson("/library/book/search/view?size=1&pattern=" + title)
+                .get(0).get("id").asLong();
+        return library.client.delete("/library/book/" + bookId + "?refresh=" + refresh);
+    }
+
+    @Benchmark
+    public Object bulkImportAuthors(LibraryState library) {
+        List<Map<String, Object>> rows = new ArrayList<>(bulkSize);
+        for (int i = 0; i < bulkSize; i++) {
+            rows.add(SyntheticLibrary.author(ThreadLocalRandom.current()));
+        }
+        return library.client.postJson("/library/authors/bulk", rows);
+    }
+
+    @Benchmark
+    public Object bulkImportBooks(LibraryState library) {
+        List<Map<String, Object>> rows = new ArrayList<>(bulkSize);
+        for (int i = 0; i < bulkSize; i++) {
+            rows.add(SyntheticLibrary.book(ThreadLocalRandom.current(), library.randomAuthorId()));
+        }
+        return library.client.postJson("/library/books/bulk", rows);
+    }
+
+    private static Map<String, String> fields(Map<String, Object> row) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : row.entrySet()) {
+            fields.put(field.getKey(), String.valueOf(field.getValue()));
+        }
+        return fields;
+    }
+}
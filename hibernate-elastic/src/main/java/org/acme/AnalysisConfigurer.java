@@ -10,6 +10,8 @@ import javax.inject.Named;
 @Named("myAnalysisConfigurer")
 public class AnalysisConfigurer implements ElasticsearchAnalysisConfigurer {
 
+    private static final int NAME_MAX_GRAM = 6;
+
     @Override
     public void configure(ElasticsearchAnalysisConfigurationContext context) {
         context.analyzer("name").custom()
@@ -18,14 +20,32 @@ public class AnalysisConfigurer implements ElasticsearchAnalysisConfigurer {
         context.tokenFilter("edge_ngram_filter")
                 .type("edgeNGram")
                 .param("side", "front")
-                .param("max_gram", 6)
+                .param("max_gram", NAME_MAX_GRAM)
                 .param("min_gram", 3);
 
+        // query text is not n-grammed: a typed prefix is looked up as a single term, cut to the longest indexed gram
+        context.analyzer("name_search").custom()
+                .tokenizer("standard")
+                .tokenFilters("asciifolding", "lowercase", "name_gram_truncate");
+        context.tokenFilter("name_gram_truncate")
+                .type("truncate")
+                .param("length", NAME_MAX_GRAM);
+
 
         context.analyzer("english").custom()
                 .tokenizer("standard")
                 .tokenFilters("asciifolding", "lowercase", "porter_stem");
 
+        // every 3-letter window of each word, so that "contains" searches are term lookups
+        context.analyzer("title_ngram").custom()
+                .tokenizer("trigram")
+                .tokenFilters("asciifolding", "lowercase");
+        context.tokenizer("trigram")
+                .type("ngram")
+                .param("min_gram", 3)
+                .param("max_gram", 3)
+                .param("token_chars", "letter", "digit");
+
         context.normalizer("sort").custom()
                 .tokenFilters("asciifolding", "lowercase");
     }
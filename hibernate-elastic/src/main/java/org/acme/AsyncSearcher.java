@@ -0,0 +1,154 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking counterparts of the view searches: queries are sent with the asynchronous REST client, so no worker
+ * thread waits on Elasticsearch, and views are read from the document source, so no JDBC connection is needed.
+ * <p>
+ * The queries are the ones Hibernate Search builds for the blocking endpoints, written in the Elasticsearch DSL.
+ * Like the blocking searches, they go through the {@link QueryGuard}: they may be shed and run with the timeout of
+ * their query type. Responses complete on the I/O threads of the REST client, which must only move bytes: they are parsed and turned
+ * into views on the managed executor.
+ */
+@ApplicationScoped
+public class AsyncSearcher {
+
+    @Inject
+    IndexAdmin indexAdmin;
+
+    @Inject
+    LibraryMetrics metrics;
+
+    @Inject
+    MeteredRequest request;
+
+    @Inject
+    QueryGuard guard;
+
+    @Inject
+    ManagedExecutor executor;
+
+    public CompletionStage<List<BookView>> searchBooks(String pattern, int size) {
+        MeteredRequest metered = request.instance();
+        metered.queryType = "simpleQueryString";
+        guard.admit(metered.queryType);
+        JsonObject body = new JsonObject();
+        body.add("query", simpleQueryString(pattern, "title"));
+        body.addProperty("size", size);
+        body.add("_source", strings("title"));
+        return search(metered, Book.class, body).thenApplyAsync(hits -> views(hits, BookView::fromSource), executor);
+    }
+
+    /**
+     * Authors whose name matches, or who wrote a book whose title matches: first the ids of the authors
+     * of matching books, page by page, then the authors.
+     */
+    public CompletionStage<List<AuthorView>> searchAuthors(String pattern, int size, int maxBookAuthors) {
+        MeteredRequest metered = request.instance();
+        metered.queryType = "simpleQueryString";
+        guard.admit(metered.queryType);
+        return bookAuthors(pattern, maxBookAuthors, new LinkedHashSet<>(), null)
+                .thenComposeAsync(bookAuthors -> {
+                    JsonArray ids = new JsonArray();
+                    bookAuthors.forEach(id -> ids.add(String.valueOf(id)));
+                    JsonArray should = new JsonArray();
+                    should.add(simpleQueryString(pattern, "firstName", "lastName"));
+                    if (ids.size() > 0) {
+                        JsonObject values = new JsonObject();
+                        values.add("values", ids);
+                        JsonObject idsQuery = new JsonObject();
+                        idsQuery.add("ids", values);
+                        should.add(idsQuery);
+                    }
+                    JsonObject bool = new JsonObject();
+                    bool.add("should", should);
+                    JsonObject query = new JsonObject();
+                    query.add("bool", bool);
+                    JsonObject body = new JsonObject();
+                    body.add("query", query);
+                    body.addProperty("size", size);
+                    body.add("sort", strings("lastName_sort", "firstName_sort"));
+                    body.add("_source", strings("firstName", "lastName"));
+                    return search(metered, Author.class, body);
+                }, executor)
+                .thenApplyAsync(hits -> views(hits, AuthorView::fromSource), executor);
+    }
+
+    private CompletionStage<Set<Long>> bookAuthors(String pattern, int max, Set<Long> ids, JsonElement afterKey) {
+        JsonObject aggregations = new JsonObject();
+        aggregations.add(BookAuthorIds.AGGREGATION, BookAuthorIds.page(afterKey));
+        JsonObject bookQuery = new JsonObject();
+        bookQuery.add("query", simpleQueryString(pattern, "title"));
+        bookQuery.addProperty("size", 0);
+        bookQuery.add("aggs", aggregations);
+        guard.limitTime("simpleQueryString", bookQuery);
+        long start = System.nanoTime();
+        return indexAdmin.sendAsync("POST", "/" + indexAdmin.readAlias(Book.class) + "/_search", bookQuery)
+                .thenComposeAsync(books -> {
+                    guard.checkTimedOut("simpleQueryString", books, System.nanoTime() - start);
+                    JsonElement next = BookAuthorIds.collect(books.getAsJsonObject("aggregations")
+                            .getAsJsonObject(BookAuthorIds.AGGREGATION), ids, max);
+                    if (ids.size() == max) {
+                        guard.truncated("bookAuthors");
+                    }
+                    return next == null ? CompletableFuture.completedFuture(ids) : bookAuthors(pattern, max, ids, next);
+                }, executor);
+    }
+
+    private CompletionStage<JsonArray> search(MeteredRequest metered, Class<?> type, JsonObject body) {
+        guard.limitTime(metered.queryType, body);
+        long start = System.nanoTime();
+        return indexAdmin.sendAsync("POST", "/" + indexAdmin.readAlias(type) + "/_search", body)
+                .thenApplyAsync(response -> {
+                    guard.checkTimedOut(metered.queryType, response, System.nanoTime() - start);
+                    metrics.recordSearch(metered, Duration.ofMillis(response.get("took").getAsLong()),
+                            System.nanoTime() - start);
+                    return response.getAsJsonObject("hits").getAsJsonArray("hits");
+                }, executor);
+    }
+
+    private static <V> List<V> views(JsonArray hits, ViewFactory<V> factory) {
+        List<V> views = new ArrayList<>(hits.size());
+        for (JsonElement hit : hits) {
+            JsonObject document = hit.getAsJsonObject();
+            views.add(factory.create(Long.valueOf(document.get("_id").getAsString()), document.getAsJsonObject("_source")));
+        }
+        return views;
+    }
+
+    private static JsonObject simpleQueryString(String pattern, String... fields) {
+        JsonObject simpleQueryString = new JsonObject();
+        simpleQueryString.addProperty("query", pattern);
+        simpleQueryString.add("fields", strings(fields));
+        JsonObject query = new JsonObject();
+        query.add("simple_query_string", simpleQueryString);
+        return query;
+    }
+
+    private static JsonArray strings(String... values) {
+        JsonArray array = new JsonArray();
+        for (String value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    @FunctionalInterface
+    private interface ViewFactory<V> {
+        V create(Long id, JsonObject source);
+    }
+}
@@ -1,34 +1,69 @@
 package org.acme;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.search.engine.backend.types.Norms;
+import org.hibernate.search.engine.backend.types.Projectable;
+import org.hibernate.search.engine.backend.types.Searchable;
 import org.hibernate.search.engine.backend.types.Sortable;
+import org.hibernate.search.mapper.pojo.bridge.mapping.annotation.ValueBinderRef;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.Indexed;
-import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexedEmbedded;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexingDependency;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.KeywordField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.NonStandardField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.ObjectPath;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.PropertyValue;
 
 import javax.persistence.*;
+import java.util.Arrays;
 import java.util.List;
 
 @Entity
+@Cacheable
 @Indexed
 @Table(name="Author")
 public class Author extends PanacheEntity {
 
-    @FullTextField(analyzer = "name")
-    @KeywordField(name = "firstName_sort", sortable = Sortable.YES, normalizer = "sort")
+    // No norms on names: a longer name only has more n-grams, which shouldn't lower its score.
+    // The sort fields are never queried, they only need doc values.
+    @FullTextField(analyzer = "name", searchAnalyzer = "name_search", projectable = Projectable.YES, norms = Norms.NO)
+    @KeywordField(name = "firstName_sort", sortable = Sortable.YES, searchable = Searchable.NO, normalizer = "sort")
     @Column(length=100)
     public String firstName;
 
-    @FullTextField(analyzer = "name")
-    @KeywordField(name = "lastName_sort", sortable = Sortable.YES, normalizer = "sort")
+    @FullTextField(analyzer = "name", searchAnalyzer = "name_search", projectable = Projectable.YES, norms = Norms.NO)
+    @KeywordField(name = "lastName_sort", sortable = Sortable.YES, searchable = Searchable.NO, normalizer = "sort")
     @Column(length=100)
     public String lastName;
 
+    /**
+     * Not embedded in the author document: book titles are searched on the book index instead,
+     * so adding or removing a book doesn't reindex an author together with its whole bibliography.
+     * Initialized in batches when a search loads many authors, instead of one select per author.
+     * Cached like its owner; writes that add or remove a book evict it through {@link EntityCache#evictBooksOf}.
+     */
+    @BatchSize(size = 50)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @OneToMany(mappedBy = "author", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
-    @IndexedEmbedded
     public List<Book> books;
 
+    /**
+     * Typeahead inputs: the full name in both orders, so that typing a last name suggests the author too.
+     */
+    @JsonIgnore
+    @NonStandardField(name = "name_suggest", valueBinder = @ValueBinderRef(type = CompletionBinder.class))
+    @IndexingDependency(derivedFrom = {
+            @ObjectPath(@PropertyValue(propertyName = "firstName")),
+            @ObjectPath(@PropertyValue(propertyName = "lastName"))
+    })
+    public List<String> getNameSuggest() {
+        return Arrays.asList(firstName + " " + lastName, lastName + " " + firstName);
+    }
+
 
 
 }
@@ -0,0 +1,38 @@
+package org.acme;
+
+import com.google.gson.JsonObject;
+import org.hibernate.search.engine.search.projection.dsl.ProjectionFinalStep;
+import org.hibernate.search.engine.search.projection.dsl.SearchProjectionFactory;
+import org.hibernate.search.mapper.orm.common.EntityReference;
+
+/**
+ * Lightweight, read-only view of an {@link Author}, projected straight from the index without loading the entity.
+ */
+public class AuthorView {
+
+    public Long id;
+
+    public String firstName;
+
+    public String lastName;
+
+    public AuthorView(Long id, String firstName, String lastName) {
+        this.id = id;
+        this.firstName = firstName;
+        this.lastName = lastName;
+    }
+
+    static ProjectionFinalStep<AuthorView> projection(SearchProjectionFactory<EntityReference, ?> f) {
+        return f.composite((reference, firstName, lastName) -> new AuthorView((Long) reference.id(), firstName, lastName),
+                f.entityReference(),
+                f.field("firstName", String.class),
+                f.field("lastName", String.class));
+    }
+
+    /**
+     * The view of the author whose document has id {@code id} and source {@code source}.
+     */
+    static AuthorView fromSource(Long id, JsonObject source) {
+        return new AuthorView(id, DocumentSource.string(source, "firstName"), DocumentSource.string(source, "lastName"));
+    }
+}
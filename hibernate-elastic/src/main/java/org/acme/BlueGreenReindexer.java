@@ -0,0 +1,421 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.mapper.orm.Search;
+import org.hibernate.search.mapper.orm.automaticindexing.session.AutomaticIndexingSynchronizationStrategy;
+import org.hibernate.search.mapper.orm.session.SearchSession;
+import org.hibernate.search.mapper.orm.work.SearchIndexingPlan;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebuilds the indexes without search downtime ("blue/green").
+ * <p>
+ * For each entity type, a new versioned index is created with the analysis and mapping of the current Hibernate
+ * Search mapping, so that a rebuild rolls out mapping and analyzer changes, and the configured
+ * {@link IndexSettingsManager index settings}, and the write alias is moved to it so that the mass indexer and the write endpoints fill it, while searches keep reading
+ * the complete old index. Changes committed meanwhile are mirrored to the old index, so searches stay fresh.
+ * Once the new index is built, the changes are reapplied to it (the mass indexer may have overwritten them with
+ * entities it loaded earlier) and the read alias is swapped to it atomically.
+ */
+@ApplicationScoped
+public class BlueGreenReindexer {
+
+    private static final Logger LOG = Logger.getLogger(BlueGreenReindexer.class);
+
+    private static final List<Class<?>> TYPES = Arrays.asList(Author.class, Book.class);
+
+    /**
+     * Operational settings carried over from the old index; analysis comes from the mapping and the others are
+     * generated by Elasticsearch.
+     */
+    private static final List<String> COPIED_SETTINGS = Arrays.asList(
+            "number_of_shards", "number_of_replicas", "refresh_interval", "max_result_window", "max_ngram_diff");
+
+    private static final int CATCH_UP_CHUNK_SIZE = 500;
+
+    @Inject
+    IndexAdmin indexAdmin;
+
+    @Inject
+    LibraryIndexer libraryIndexer;
+
+    @Inject
+    IndexSettingsManager indexSettings;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction transaction;
+
+    @ConfigProperty(name = "library.blue-green.mirror-interval", defaultValue = "PT1S")
+    Duration mirrorInterval;
+
+    @ConfigProperty(name = "library.blue-green.delete-old-index", defaultValue = "false")
+    boolean deleteOldIndex;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Map<Class<?>, Mirror> mirrors = new ConcurrentHashMap<>();
+
+    private volatile RebuildStatus status = new RebuildStatus();
+
+    /**
+     * Starts rebuilding every index in the background.
+     *
+     * @throws ClientErrorException with status 409 if a rebuild is already running
+     */
+    public RebuildStatus rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            throw new ClientErrorException("An index rebuild is already running", Response.Status.CONFLICT);
+        }
+        RebuildStatus started = new RebuildStatus();
+        started.running = true;
+        started.startedAt = Instant.now();
+        status = started;
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+        executor.execute(() -> {
+            try {
+                for (Class<?> type : TYPES) {
+                    rebuild(type, executor, started);
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Blue/green index rebuild failed", e);
+                started.error = e.getMessage();
+            } finally {
+                started.running = false;
+                started.completedAt = Instant.now();
+                running.set(false);
+                executor.shutdownNow();
+            }
+        });
+        return started;
+    }
+
+    public RebuildStatus status() {
+        return status;
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) LibraryChange change) {
+        Mirror mirror = mirrors.get(change.type);
+        if (mirror != null) {
+            mirror.record(change);
+        }
+    }
+
+    private void rebuild(Class<?> type, ScheduledExecutorService executor, RebuildStatus progress) {
+        String readAlias = indexAdmin.readAlias(type);
+        String writeAlias = indexAdmin.writeAlias(type);
+        String oldIndex = indexAdmin.indexBehind(writeAlias);
+        String newIndex = nextIndexName(indexAdmin.name(type), oldIndex);
+        LOG.infof("Rebuilding %s into %s, searches keep reading %s", type.getSimpleName(), newIndex, oldIndex);
+
+        JsonObject existing = indexAdmin.send("GET", "/" + oldIndex, null).getAsJsonObject(oldIndex);
+        JsonObject creation = creation(existing, indexAdmin.expectedSchema(type));
+        // the configured shard count applies from the new index on
+        indexSettings.applyTo(creation);
+        indexAdmin.send("PUT", "/" + newIndex, creation);
+        indexSettings.relax(newIndex);
+        Mirror mirror = new Mirror(newIndex, oldIndex, fieldsOf(existing));
+        ScheduledFuture<?> mirroring = null;
+        try {
+            indexAdmin.moveAlias(writeAlias, oldIndex, newIndex, true);
+            // only now: a change committed before the move was indexed into the old index already
+            mirrors.put(type, mirror);
+            long interval = mirrorInterval.toMillis();
+            mirroring = executor.scheduleWithFixedDelay(() -> mirror.flush(indexAdmin), interval, interval,
+                    TimeUnit.MILLISECONDS);
+            try {
+                libraryIndexer.massIndexer(type).purgeAllOnStart(false).startAndWait();
+                indexSettings.restore(newIndex);
+                catchUp(type, mirror.changed);
+                mirror.flush(indexAdmin);
+                mirror.checkHealthy();
+            } catch (Exception e) {
+                indexAdmin.moveAlias(writeAlias, newIndex, oldIndex, true);
+                mirrors.remove(type);
+                mirror.flush(indexAdmin);
+                // the old index may have missed changes that could not be mirrored: index them from the database
+                try {
+                    catchUp(type, mirror.changed);
+                } catch (Exception catchUpFailure) {
+                    e.addSuppressed(catchUpFailure);
+                }
+                throw e;
+            }
+        } catch (Exception e) {
+            mirrors.remove(type);
+            indexAdmin.send("DELETE", "/" + newIndex, null);
+            throw new IllegalStateException("Rebuilding " + type.getSimpleName() + " into " + newIndex + " failed", e);
+        } finally {
+            if (mirroring != null) {
+                mirroring.cancel(false);
+            }
+        }
+        indexAdmin.moveAlias(readAlias, oldIndex, newIndex, false);
+        mirrors.remove(type);
+        progress.indexes.put(type.getSimpleName(), newIndex);
+        LOG.infof("Searches on %s now read %s", type.getSimpleName(), newIndex);
+        if (deleteOldIndex) {
+            indexAdmin.send("DELETE", "/" + oldIndex, null);
+        }
+    }
+
+    /**
+     * Reindexes the entities changed during the build, waiting until the new index has them.
+     */
+    private void catchUp(Class<?> type, Set<Long> changed) throws Exception {
+        List<Long> ids = new ArrayList<>(changed);
+        for (int from = 0; from < ids.size(); from += CATCH_UP_CHUNK_SIZE) {
+            transaction.begin();
+            try {
+                SearchSession searchSession = Search.session(entityManager);
+                searchSession.automaticIndexingSynchronizationStrategy(AutomaticIndexingSynchronizationStrategy.writeSync());
+                SearchIndexingPlan plan = searchSession.indexingPlan();
+                for (Long id : ids.subList(from, Math.min(from + CATCH_UP_CHUNK_SIZE, ids.size()))) {
+                    Object entity = entityManager.find(type, id);
+                    if (entity == null) {
+                        plan.purge(type, id, null);
+                    } else {
+                        plan.addOrUpdate(entity);
+                    }
+                }
+                transaction.commit();
+            } catch (Exception e) {
+                rollback();
+                throw e;
+            }
+        }
+        LOG.infof("Reapplied %d changes made to %s during the rebuild", ids.size(), type.getSimpleName());
+    }
+
+    private void rollback() {
+        try {
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+        } catch (SystemException e) {
+            LOG.warn("Could not roll back index catch-up", e);
+        }
+    }
+
+    /**
+     * The body creating the next index of {@code existing}: the mapping and analysis {@code expected} by Hibernate
+     * Search, the operational settings of {@code existing}, no aliases.
+     */
+    static JsonObject creation(JsonObject existing, JsonObject expected) {
+        JsonObject settings = existing.getAsJsonObject("settings").getAsJsonObject("index");
+        JsonObject copiedSettings = new JsonObject();
+        for (String setting : COPIED_SETTINGS) {
+            if (settings.has(setting)) {
+                copiedSettings.add(setting, settings.get(setting));
+            }
+        }
+        JsonObject expectedSettings = expected.getAsJsonObject("settings");
+        if (expectedSettings != null && expectedSettings.has("analysis")) {
+            copiedSettings.add("analysis", expectedSettings.get("analysis"));
+        }
+        JsonObject index = new JsonObject();
+        index.add("index", copiedSettings);
+        JsonObject body = new JsonObject();
+        body.add("settings", index);
+        body.add("mappings", expected.get("mappings"));
+        return body;
+    }
+
+    /**
+     * The fields mapped in an index, as returned by {@code GET /<index>}.
+     */
+    static Set<String> fieldsOf(JsonObject index) {
+        JsonObject properties = index.getAsJsonObject("mappings").getAsJsonObject("properties");
+        return properties == null ? new HashSet<>() : new HashSet<>(properties.keySet());
+    }
+
+    /**
+     * The part of a document source that an index with the given fields accepts: the index being read was created
+     * from the previous mapping, and rejects the fields added since.
+     */
+    static JsonObject retain(JsonObject source, Set<String> fields) {
+        JsonObject retained = new JsonObject();
+        for (Map.Entry<String, JsonElement> field : source.entrySet()) {
+            if (fields.contains(field.getKey())) {
+                retained.add(field.getKey(), field.getValue());
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * {@code book-000001} becomes {@code book-000002}.
+     */
+    static String nextIndexName(String name, String current) {
+        int version = 1;
+        String suffix = current.substring(current.lastIndexOf('-') + 1);
+        if (current.startsWith(name + "-") && suffix.matches("\\d+")) {
+            version = Integer.parseInt(suffix);
+        }
+        return String.format("%s-%06d", name, version + 1);
+    }
+
+    /**
+     * Copies changed documents from the index being built to the index still being read, by id, keeping the fields
+     * the old mapping has. Deletions are applied as such; a document not found in the new index is retried, never
+     * deleted, since it may just not be indexed yet.
+     */
+    private static class Mirror {
+
+        private static final int MAX_ATTEMPTS = 10;
+
+        final String source;
+        final String target;
+        final Set<String> targetFields;
+        /** Every entity changed during the build. */
+        final Set<Long> changed = ConcurrentHashMap.newKeySet();
+        /** Entities deleted during the build. */
+        final Set<Long> deleted = ConcurrentHashMap.newKeySet();
+        /** Changes not mirrored yet, and how many times they were tried. */
+        final Map<Long, Integer> pending = new ConcurrentHashMap<>();
+        /** The first change the old index rejected, failing the rebuild. */
+        volatile String failure;
+
+        Mirror(String source, String target, Set<String> targetFields) {
+            this.source = source;
+            this.target = target;
+            this.targetFields = targetFields;
+        }
+
+        void record(LibraryChange change) {
+            changed.add(change.id);
+            if (change.deleted) {
+                deleted.add(change.id);
+            }
+            pending.put(change.id, 0);
+        }
+
+        void checkHealthy() {
+            if (failure != null) {
+                throw new IllegalStateException("Changes could not be mirrored to " + target + ": " + failure);
+            }
+        }
+
+        synchronized void flush(IndexAdmin indexAdmin) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Map<Long, Integer> batch = new LinkedHashMap<>(pending);
+            batch.keySet().forEach(pending::remove);
+            try {
+                StringBuilder actions = new StringBuilder();
+                JsonArray ids = new JsonArray();
+                for (Long id : batch.keySet()) {
+                    if (deleted.contains(id)) {
+                        actions.append(action("delete", id)).append('\n');
+                    } else {
+                        ids.add(id);
+                    }
+                }
+                if (ids.size() > 0) {
+                    JsonObject query = new JsonObject();
+                    query.add("ids", ids);
+                    // get by id is real-time: it sees documents not refreshed yet
+                    JsonArray docs = indexAdmin.send("POST", "/" + source + "/_mget", query).getAsJsonArray("docs");
+                    for (JsonElement element : docs) {
+                        JsonObject doc = element.getAsJsonObject();
+                        Long id = Long.valueOf(doc.get("_id").getAsString());
+                        if (doc.get("found").getAsBoolean()) {
+                            actions.append(action("index", id)).append('\n')
+                                    .append(retain(doc.getAsJsonObject("_source"), targetFields)).append('\n');
+                        } else if (batch.get(id) + 1 < MAX_ATTEMPTS) {
+                            // not indexed yet: the indexing queues are asynchronous
+                            pending.putIfAbsent(id, batch.get(id) + 1);
+                        } else {
+                            LOG.warnf("%s not indexed in %s after %d attempts, %s keeps its previous version until the"
+                                    + " swap", id, source, MAX_ATTEMPTS, target);
+                        }
+                    }
+                }
+                if (actions.length() > 0) {
+                    JsonObject result = indexAdmin.bulk(actions.toString());
+                    if (result.get("errors").getAsBoolean()) {
+                        failure = firstError(result);
+                        LOG.errorf("Changes could not be mirrored to %s, failing the rebuild: %s", target, failure);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warnf(e, "Mirroring changes to %s failed, retrying", target);
+                batch.forEach(pending::putIfAbsent);
+            }
+        }
+
+        private String action(String type, Long id) {
+            JsonObject metadata = new JsonObject();
+            metadata.addProperty("_index", target);
+            metadata.addProperty("_id", String.valueOf(id));
+            JsonObject action = new JsonObject();
+            action.add(type, metadata);
+            return action.toString();
+        }
+
+        /**
+         * The first item error of a bulk response; deleting a document the old index doesn't have is not one.
+         */
+        private static String firstError(JsonObject result) {
+            for (JsonElement item : result.getAsJsonArray("items")) {
+                for (Map.Entry<String, JsonElement> action : item.getAsJsonObject().entrySet()) {
+                    JsonObject outcome = action.getValue().getAsJsonObject();
+                    if (outcome.has("error")) {
+                        return outcome.get("_id").getAsString() + ": " + outcome.get("error");
+                    }
+                }
+            }
+            return result.get("items").toString();
+        }
+    }
+
+    /**
+     * Progress of the last rebuild.
+     */
+    public static class RebuildStatus {
+
+        public boolean running;
+
+        public Instant startedAt;
+
+        public Instant completedAt;
+
+        public String error;
+
+        /** Entity type name to the index searches read once its rebuild completed. */
+        public Map<String, String> indexes = new ConcurrentHashMap<>();
+    }
+}
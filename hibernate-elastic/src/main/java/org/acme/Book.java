@@ -2,31 +2,114 @@ package org.acme;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.search.engine.backend.types.Aggregable;
+import org.hibernate.search.engine.backend.types.Norms;
+import org.hibernate.search.engine.backend.types.Projectable;
+import org.hibernate.search.engine.backend.types.Searchable;
 import org.hibernate.search.engine.backend.types.Sortable;
+import org.hibernate.search.mapper.pojo.bridge.mapping.annotation.ValueBinderRef;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.GenericField;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.Indexed;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexingDependency;
 import org.hibernate.search.mapper.pojo.mapping.definition.annotation.KeywordField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.NonStandardField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.ObjectPath;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.PropertyValue;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 @Entity
+@Cacheable
 @Indexed
 @Table(name="Book")
 public class Book extends PanacheEntity {
 
-    @FullTextField(analyzer = "english")
-    @KeywordField(name = "title_sort", sortable = Sortable.YES, normalizer = "sort")
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "and", "as", "at", "by", "for", "from", "in", "into", "is", "of", "on", "or", "the", "to",
+            "with"));
+
+    // Trigrams only need their positions, for phrase matching: "contains" searches are not ranked by title length.
+    // The sort field is never queried, it only needs doc values.
+    @FullTextField(analyzer = "english", projectable = Projectable.YES)
+    @FullTextField(name = "title_ngram", analyzer = "title_ngram", norms = Norms.NO)
+    @KeywordField(name = "title_sort", sortable = Sortable.YES, searchable = Searchable.NO, normalizer = "sort")
     @Column(length = 200)
     public String title;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonIgnore
     public Author author;
 
+    /**
+     * Id of the author, indexed so that author searches can match on book titles without embedding books in authors.
+     * Read from the proxy when the author is not loaded, so that indexing a book never loads its author.
+     */
+    @GenericField(aggregable = Aggregable.YES)
+    @IndexingDependency(derivedFrom = @ObjectPath(@PropertyValue(propertyName = "author")))
+    public Long getAuthorId() {
+        if (author instanceof HibernateProxy) {
+            return (Long) ((HibernateProxy) author).getHibernateLazyInitializer().getIdentifier();
+        }
+        return author == null ? null : author.id;
+    }
 
+    /**
+     * Exposes the database id as a sortable field, used as the tie-breaker of keyset ({@code search_after}) pagination.
+     */
+    @JsonIgnore
+    @GenericField(name = "id_sort", sortable = Sortable.YES, searchable = Searchable.NO)
+    @IndexingDependency(derivedFrom = @ObjectPath(@PropertyValue(propertyName = "id")))
+    public Long getIdSort() {
+        return id;
+    }
 
+    /**
+     * Distinct words of the title except stop words, as keywords so that they can be counted in facets.
+     */
+    @JsonIgnore
+    @KeywordField(name = "title_terms", aggregable = Aggregable.YES, searchable = Searchable.NO, normalizer = "sort")
+    @IndexingDependency(derivedFrom = @ObjectPath(@PropertyValue(propertyName = "title")))
+    public List<String> getTitleTerms() {
+        Set<String> terms = new LinkedHashSet<>();
+        if (title != null) {
+            for (String word : title.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty() && !STOP_WORDS.contains(word)) {
+                    terms.add(word);
+                }
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * Typeahead inputs: the title from each of its words on, so that typing any word of the title suggests the book.
+     */
+    @JsonIgnore
+    @NonStandardField(name = "title_suggest", valueBinder = @ValueBinderRef(type = CompletionBinder.class))
+    @IndexingDependency(derivedFrom = @ObjectPath(@PropertyValue(propertyName = "title")))
+    public List<String> getTitleSuggest() {
+        List<String> inputs = new ArrayList<>();
+        if (title != null) {
+            String[] words = title.trim().split("\\s+");
+            for (int i = 0; i < words.length; i++) {
+                inputs.add(String.join(" ", Arrays.copyOfRange(words, i, words.length)));
+            }
+        }
+        return inputs;
+    }
 
 }
\ No newline at end of file
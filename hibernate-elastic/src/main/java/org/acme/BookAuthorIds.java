@@ -0,0 +1,62 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Set;
+
+/**
+ * Pages through the ids of the authors of matching books with a {@code composite} aggregation on {@code authorId}.
+ * <p>
+ * A {@code terms} aggregation returns at most its {@code size} buckets, and silently drops the others; a composite
+ * aggregation returns them page after page, each page resuming after the last key of the previous one.
+ */
+final class BookAuthorIds {
+
+    static final String AGGREGATION = "authorIds";
+
+    static final int PAGE_SIZE = 5000;
+
+    private BookAuthorIds() {
+    }
+
+    /**
+     * The aggregation returning the page of author ids after {@code afterKey}, the first page if {@code null}.
+     */
+    static JsonObject page(JsonElement afterKey) {
+        JsonObject field = new JsonObject();
+        field.addProperty("field", "authorId");
+        JsonObject terms = new JsonObject();
+        terms.add("terms", field);
+        JsonObject source = new JsonObject();
+        source.add("authorId", terms);
+        JsonArray sources = new JsonArray();
+        sources.add(source);
+        JsonObject composite = new JsonObject();
+        composite.addProperty("size", PAGE_SIZE);
+        composite.add("sources", sources);
+        if (afterKey != null) {
+            composite.add("after", afterKey);
+        }
+        JsonObject aggregation = new JsonObject();
+        aggregation.add("composite", composite);
+        return aggregation;
+    }
+
+    /**
+     * Adds the author ids of a page to {@code ids}, at most {@code max} in total.
+     *
+     * @return the key to request the next page with, {@code null} after the last page or once {@code max} is reached
+     */
+    static JsonElement collect(JsonObject page, Set<Long> ids, int max) {
+        for (JsonElement bucket : page.getAsJsonArray("buckets")) {
+            if (ids.size() == max) {
+                return null;
+            }
+            ids.add(bucket.getAsJsonObject().getAsJsonObject("key").get("authorId").getAsLong());
+        }
+        JsonElement afterKey = page.get("after_key");
+        return afterKey == null || page.getAsJsonArray("buckets").size() == 0 || ids.size() == max ? null : afterKey;
+    }
+}
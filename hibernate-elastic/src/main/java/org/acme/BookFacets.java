@@ -0,0 +1,49 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts of the books matching a search, computed by Elasticsearch aggregations: per author and per title word.
+ */
+public class BookFacets {
+
+    /** Number of matching books. */
+    public long total;
+
+    /** Authors with the most matching books, most first. */
+    public List<AuthorBucket> authors = new ArrayList<>();
+
+    /** Words appearing in the most matching titles, most first. */
+    public List<TermBucket> titleTerms = new ArrayList<>();
+
+    public static class AuthorBucket {
+
+        public Long id;
+
+        public String firstName;
+
+        public String lastName;
+
+        public long count;
+
+        public AuthorBucket(Long id, String firstName, String lastName, long count) {
+            this.id = id;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.count = count;
+        }
+    }
+
+    public static class TermBucket {
+
+        public String term;
+
+        public long count;
+
+        public TermBucket(String term, long count) {
+            this.term = term;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.acme;
+
+import com.google.gson.JsonObject;
+import org.hibernate.search.engine.search.projection.dsl.ProjectionFinalStep;
+import org.hibernate.search.engine.search.projection.dsl.SearchProjectionFactory;
+import org.hibernate.search.mapper.orm.common.EntityReference;
+
+/**
+ * Lightweight, read-only view of a {@link Book}, projected straight from the index without loading the entity.
+ */
+public class BookView {
+
+    public Long id;
+
+    public String title;
+
+    public BookView(Long id, String title) {
+        this.id = id;
+        this.title = title;
+    }
+
+    static ProjectionFinalStep<BookView> projection(SearchProjectionFactory<EntityReference, ?> f) {
+        return f.composite((reference, title) -> new BookView((Long) reference.id(), title),
+                f.entityReference(),
+                f.field("title", String.class));
+    }
+
+    /**
+     * The view of the book whose document has id {@code id} and source {@code source}.
+     */
+    static BookView fromSource(Long id, JsonObject source) {
+        return new BookView(id, DocumentSource.string(source, "title"));
+    }
+}
@@ -0,0 +1,31 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were imported, and why the others were rejected.
+ */
+public class BulkImportResult {
+
+    public int imported;
+
+    public List<RowError> errors = new ArrayList<>();
+
+    void reject(int row, String message) {
+        errors.add(new RowError(row, message));
+    }
+
+    public static class RowError {
+
+        /** 1-based position of the row in the upload, not counting a CSV header. */
+        public int row;
+
+        public String message;
+
+        public RowError(int row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.acme;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.MediaType;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports authors and books from a streamed JSON array or CSV upload.
+ * <p>
+ * Rows are read lazily and written in chunks, each chunk in its own transaction: inserts are batched by JDBC,
+ * the indexing work of the chunk is sent to Elasticsearch when it commits, and the persistence context does not
+ * grow with the size of the upload. Invalid rows are reported instead of failing the whole import, and so is an
+ * upload that cannot be read to the end: the rows read before are imported, the rest is reported as one error.
+ */
+@ApplicationScoped
+public class BulkImporter {
+
+    private static final Logger LOG = Logger.getLogger(BulkImporter.class);
+
+    public static final String TEXT_CSV = "text/csv";
+
+    private static final String[] AUTHOR_COLUMNS = {"firstName", "lastName"};
+    private static final String[] BOOK_COLUMNS = {"title", "authorId"};
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Inject
+    Event<LibraryChange> changes;
+
+    @Inject
+    EntityCache entityCache;
+
+    @ConfigProperty(name = "library.import.chunk-size", defaultValue = "500")
+    int chunkSize;
+
+    public BulkImportResult importAuthors(InputStream body, MediaType contentType) throws IOException {
+        return importRows(reader(body, contentType, AUTHOR_COLUMNS), this::persistAuthors);
+    }
+
+    public BulkImportResult importBooks(InputStream body, MediaType contentType) throws IOException {
+        return importRows(reader(body, contentType, BOOK_COLUMNS), this::persistBooks);
+    }
+
+    private BulkImportResult importRows(RowReader reader, ChunkWriter writer) throws IOException {
+        BulkImportResult result = new BulkImportResult();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        int position = 0;
+        while (true) {
+            String[] values;
+            try {
+                values = reader.next();
+            } catch (InvalidRowException e) {
+                result.reject(++position, e.getMessage());
+                continue;
+            } catch (IOException e) {
+                LOG.warnf(e, "Bulk import stopped after row %d", position);
+                result.reject(position + 1, "Import stopped, the rest of the upload cannot be read: " + e.getMessage());
+                break;
+            }
+            if (values == null) {
+                break;
+            }
+            chunk.add(new Row(++position, values));
+            if (chunk.size() == chunkSize) {
+                writeChunk(chunk, writer, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, writer, result);
+        }
+        return result;
+    }
+
+    private void writeChunk(List<Row> chunk, ChunkWriter writer, BulkImportResult result) {
+        BulkImportResult chunkResult = new BulkImportResult();
+        try {
+            transaction.begin();
+            writer.write(chunk, chunkResult);
+            transaction.commit();
+            result.imported += chunkResult.imported;
+            result.errors.addAll(chunkResult.errors);
+        } catch (Exception e) {
+            LOG.warnf(e, "Bulk import of rows %d to %d failed", chunk.get(0).position, chunk.get(chunk.size() - 1).position);
+            rollback();
+            for (Row row : chunk) {
+                result.reject(row.position, "Chunk rolled back: " + e.getMessage());
+            }
+        }
+    }
+
+    private void rollback() {
+        try {
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+        } catch (SystemException e) {
+            LOG.warn("Could not roll back bulk import chunk", e);
+        }
+    }
+
+    private void persistAuthors(List<Row> chunk, BulkImportResult result) {
+        for (Row row : chunk) {
+            String firstName = row.values[0];
+            String lastName = row.values[1];
+            if (isBlank(firstName) || isBlank(lastName)) {
+                result.reject(row.position, "firstName and lastName are required");
+            } else if (firstName.length() > 100 || lastName.length() > 100) {
+                result.reject(row.position, "firstName and lastName must not exceed 100 characters");
+            } else {
+                Author author = new Author();
+                author.firstName = firstName;
+                author.lastName = lastName;
+                author.persist();
+                changes.fire(LibraryChange.upserted(Author.class, author.id));
+                result.imported++;
+            }
+        }
+    }
+
+    private void persistBooks(List<Row> chunk, BulkImportResult result) {
+        Long[] authorIds = new Long[chunk.size()];
+        Set<Long> referenced = new HashSet<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            Row row = chunk.get(i);
+            try {
+                authorIds[i] = isBlank(row.values[1]) ? null : Long.valueOf(row.values[1].trim());
+            } catch (NumberFormatException e) {
+                result.reject(row.position, "authorId is not a number: " + row.values[1]);
+                continue;
+            }
+            if (authorIds[i] != null) {
+                referenced.add(authorIds[i]);
+            }
+        }
+        Set<Long> existing = referenced.isEmpty() ? new HashSet<>() : new HashSet<>(entityManager
+                .createQuery("select a.id from Author a where a.id in :ids", Long.class)
+                .setParameter("ids", referenced)
+                .getResultList());
+        for (int i = 0; i < chunk.size(); i++) {
+            Row row = chunk.get(i);
+            String title = row.values[0];
+            Long authorId = authorIds[i];
+            if (authorId == null) {
+                if (!isBlank(row.values[1])) {
+                    continue; // already rejected above
+                }
+                result.reject(row.position, "authorId is required");
+            } else if (isBlank(title)) {
+                result.reject(row.position, "title is required");
+            } else if (title.length() > 200) {
+                result.reject(row.position, "title must not exceed 200 characters");
+            } else if (!existing.contains(authorId)) {
+                result.reject(row.position, "Author " + authorId + " does not exist");
+            } else {
+                Book book = new Book();
+                book.title = title;
+                book.author = entityManager.getReference(Author.class, authorId);
+                book.persist();
+                changes.fire(LibraryChange.upserted(Book.class, book.id));
+                result.imported++;
+            }
+        }
+        for (Long authorId : existing) {
+            entityCache.evictBooksOf(authorId);
+        }
+    }
+
+    private RowReader reader(InputStream body, MediaType contentType, String[] columns) throws IOException {
+        if (contentType != null && contentType.isCompatible(MediaType.valueOf(TEXT_CSV))) {
+            return csvReader(body, columns);
+        }
+        return jsonReader(objectMapper, body, columns);
+    }
+
+    static RowReader jsonReader(ObjectMapper objectMapper, InputStream body, String[] columns) throws IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(body);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new BadRequestException("Expected a JSON array of objects with fields " + Arrays.toString(columns));
+        }
+        return () -> {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                String found = token == JsonToken.START_ARRAY ? "an array" : parser.getText();
+                // skip the whole element, the next one may be fine
+                parser.skipChildren();
+                throw new InvalidRowException("Expected a JSON object with fields " + Arrays.toString(columns)
+                        + ", found " + found);
+            }
+            JsonNode node = parser.readValueAsTree();
+            String[] values = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                JsonNode value = node.get(columns[i]);
+                values[i] = value == null || value.isNull() ? null : value.asText();
+            }
+            return values;
+        };
+    }
+
+    private RowReader csvReader(InputStream body, String[] columns) throws IOException {
+        BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        List<String[]> first = new ArrayList<>();
+        String header = lines.readLine();
+        if (header != null && !String.join(",", columns).equalsIgnoreCase(header.trim())) {
+            first.add(parseCsvLine(header, columns.length));
+        }
+        return () -> {
+            if (!first.isEmpty()) {
+                return first.remove(0);
+            }
+            String line = lines.readLine();
+            while (line != null && line.trim().isEmpty()) {
+                line = lines.readLine();
+            }
+            return line == null ? null : parseCsvLine(line, columns.length);
+        };
+    }
+
+    /**
+     * Splits one CSV line into exactly {@code width} values; values may be double-quoted, with {@code ""} as escape.
+     */
+    static String[] parseCsvLine(String line, int width) {
+        String[] values = new String[width];
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        int column = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                if (column < width) {
+                    values[column] = value.toString();
+                }
+                column++;
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (column < width) {
+            values[column] = value.toString();
+        }
+        return values;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static class Row {
+
+        final int position;
+        final String[] values;
+
+        Row(int position, String[] values) {
+            this.position = position;
+            this.values = values;
+        }
+    }
+
+    @FunctionalInterface
+    interface RowReader {
+        /**
+         * @return the values of the next row, or {@code null} at the end of the upload
+         * @throws InvalidRowException if the next row is invalid but the following ones can be read
+         * @throws IOException if the rest of the upload cannot be read
+         */
+        String[] next() throws IOException;
+    }
+
+    /**
+     * A row that cannot be read, reported and skipped.
+     */
+    static class InvalidRowException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        InvalidRowException(String message) {
+            super(message);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkWriter {
+        void write(List<Row> chunk, BulkImportResult result);
+    }
+}
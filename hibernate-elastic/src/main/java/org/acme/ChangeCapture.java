@@ -0,0 +1,330 @@
+package org.acme;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.LockOptions;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the indexes in sync with the {@code Author} and {@code Book} tables whoever writes them, not only with the
+ * changes made through Hibernate ORM: rows written by {@code import.sql}, batch SQL jobs or other services are
+ * indexed too, without a full reindex.
+ * <p>
+ * Database triggers record every row change in the {@link ChangeLogEntry change log}, with the id of the writing
+ * transaction. A background processor reads the log in batches, in the order of those transaction ids, and only up
+ * to the oldest transaction still running: an entry written by a transaction that commits later can never appear
+ * behind the position already read. Each batch reindexes the current state of the changed entities, each once, and
+ * moves the {@link ChangeCaptureCheckpoint checkpoint} in the same transaction, so a batch is indexed at least once
+ * whatever fails. Consumed entries are kept for a retention period, then deleted.
+ * <p>
+ * This stands in for logical replication, which needs {@code wal_level=logical} and a replication connection: the
+ * triggers work with the regular datasource, and the log survives restarts like a replication slot.
+ */
+@ApplicationScoped
+public class ChangeCapture {
+
+    private static final Logger LOG = Logger.getLogger(ChangeCapture.class);
+
+    private static final String CHECKPOINT = "index";
+
+    private static final String BOOKS_OF_AUTHOR = "Author.books";
+
+    private static final Map<String, Class<?>> TYPES = new LinkedHashMap<>();
+
+    static {
+        TYPES.put(Author.class.getSimpleName(), Author.class);
+        TYPES.put(Book.class.getSimpleName(), Book.class);
+    }
+
+    private static final String CAPTURE_AUTHOR = "CREATE OR REPLACE FUNCTION library_capture_author() RETURNS trigger"
+            + " LANGUAGE plpgsql AS $$ BEGIN"
+            + " INSERT INTO LibraryChangeLog (entityType, entityId)"
+            + " VALUES ('Author', CASE TG_OP WHEN 'DELETE' THEN OLD.id ELSE NEW.id END);"
+            + " RETURN NULL;"
+            + " END $$";
+
+    /** Also records the authors whose bibliography gained or lost a book. */
+    private static final String CAPTURE_BOOK = "CREATE OR REPLACE FUNCTION library_capture_book() RETURNS trigger"
+            + " LANGUAGE plpgsql AS $$ BEGIN"
+            + " INSERT INTO LibraryChangeLog (entityType, entityId)"
+            + " VALUES ('Book', CASE TG_OP WHEN 'DELETE' THEN OLD.id ELSE NEW.id END);"
+            + " IF TG_OP <> 'INSERT' AND OLD.author_id IS NOT NULL"
+            + " AND (TG_OP = 'DELETE' OR OLD.author_id IS DISTINCT FROM NEW.author_id) THEN"
+            + " INSERT INTO LibraryChangeLog (entityType, entityId) VALUES ('Author.books', OLD.author_id);"
+            + " END IF;"
+            + " IF TG_OP <> 'DELETE' AND NEW.author_id IS NOT NULL"
+            + " AND (TG_OP = 'INSERT' OR OLD.author_id IS DISTINCT FROM NEW.author_id) THEN"
+            + " INSERT INTO LibraryChangeLog (entityType, entityId) VALUES ('Author.books', NEW.author_id);"
+            + " END IF;"
+            + " RETURN NULL;"
+            + " END $$";
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Inject
+    LibraryIndexer libraryIndexer;
+
+    @Inject
+    EntityCache entityCache;
+
+    @Inject
+    Event<LibraryChange> changes;
+
+    @ConfigProperty(name = "library.cdc.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "library.cdc.poll-interval", defaultValue = "PT1S")
+    Duration pollInterval;
+
+    @ConfigProperty(name = "library.cdc.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "library.cdc.retention", defaultValue = "PT1H")
+    Duration retention;
+
+    @ConfigProperty(name = "library.cdc.max-backoff", defaultValue = "PT5M")
+    Duration maxBackoff;
+
+    private final LongAdder captured = new LongAdder();
+
+    private final LongAdder failedAttempts = new LongAdder();
+
+    private int consecutiveFailures;
+
+    private Instant nextAttempt = Instant.MIN;
+
+    private ScheduledExecutorService executor;
+
+    void onStart(@Observes StartupEvent ev) throws Exception {
+        transaction.begin();
+        try {
+            if (enabled) {
+                installTriggers();
+                entityManager.createNativeQuery("INSERT INTO ChangeCaptureCheckpoint (name, txId, entryId, updatedAt)"
+                        + " VALUES (?1, 0, 0, now()) ON CONFLICT DO NOTHING")
+                        .setParameter(1, CHECKPOINT)
+                        .executeUpdate();
+            } else {
+                // stop filling a log nobody reads
+                dropTriggers();
+            }
+            transaction.commit();
+        } catch (Exception e) {
+            rollback();
+            throw e;
+        }
+        if (!enabled) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor();
+        long interval = pollInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public CaptureStatus status() {
+        CaptureStatus status = new CaptureStatus();
+        status.enabled = enabled;
+        status.captured = captured.sum();
+        status.failedAttempts = failedAttempts.sum();
+        ChangeCaptureCheckpoint checkpoint = entityManager.find(ChangeCaptureCheckpoint.class, CHECKPOINT);
+        if (checkpoint == null) {
+            return status;
+        }
+        status.checkpointTxId = checkpoint.txId;
+        status.checkpointEntryId = checkpoint.entryId;
+        status.checkpointUpdatedAt = checkpoint.updatedAt;
+        Object[] pending = entityManager.createQuery("select count(e), min(e.changedAt) from ChangeLogEntry e"
+                + " where e.txId > :txId or (e.txId = :txId and e.id > :entryId)", Object[].class)
+                .setParameter("txId", checkpoint.txId)
+                .setParameter("entryId", checkpoint.entryId)
+                .getSingleResult();
+        status.pending = (Long) pending[0];
+        status.oldest = (Instant) pending[1];
+        return status;
+    }
+
+    void poll() {
+        if (Instant.now().isBefore(nextAttempt)) {
+            return;
+        }
+        try {
+            // keep going while there is a backlog, e.g. after a batch SQL job
+            while (captureBatch() == batchSize) {
+                LOG.debug("Change log backlog, reading the next batch right away");
+            }
+            consecutiveFailures = 0;
+        } catch (Exception e) {
+            rollback();
+            failedAttempts.increment();
+            consecutiveFailures++;
+            Duration backoff = backoff(consecutiveFailures);
+            nextAttempt = Instant.now().plus(backoff);
+            LOG.warnf(e, "Indexing the change log failed (attempt %d), retrying in %s", consecutiveFailures, backoff);
+        }
+    }
+
+    /**
+     * Indexes the next batch of the change log and moves the checkpoint past it.
+     *
+     * @return the number of entries processed
+     */
+    private int captureBatch() throws Exception {
+        transaction.begin();
+        // before anything else, so that this transaction doesn't hold back the horizon itself
+        long horizon = ((Number) entityManager.createNativeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())")
+                .getSingleResult()).longValue();
+        ChangeCaptureCheckpoint checkpoint = lockCheckpoint();
+        if (checkpoint == null) {
+            // another instance is processing a batch
+            transaction.commit();
+            return 0;
+        }
+        List<ChangeLogEntry> entries = entityManager.createQuery("from ChangeLogEntry e where e.txId < :horizon"
+                + " and (e.txId > :txId or (e.txId = :txId and e.id > :entryId)) order by e.txId, e.id",
+                ChangeLogEntry.class)
+                .setParameter("horizon", horizon)
+                .setParameter("txId", checkpoint.txId)
+                .setParameter("entryId", checkpoint.entryId)
+                .setMaxResults(batchSize)
+                .getResultList();
+        if (!entries.isEmpty()) {
+            index(entries);
+            ChangeLogEntry last = entries.get(entries.size() - 1);
+            checkpoint.txId = last.txId;
+            checkpoint.entryId = last.id;
+            checkpoint.updatedAt = Instant.now();
+        }
+        entityManager.createQuery("delete from ChangeLogEntry e where e.txId < :txId and e.changedAt < :expired")
+                .setParameter("txId", checkpoint.txId)
+                .setParameter("expired", Instant.now().minus(retention))
+                .executeUpdate();
+        transaction.commit();
+        captured.add(entries.size());
+        return entries.size();
+    }
+
+    private ChangeCaptureCheckpoint lockCheckpoint() {
+        List<ChangeCaptureCheckpoint> checkpoints = entityManager.createQuery(
+                "from ChangeCaptureCheckpoint c where c.name = :name", ChangeCaptureCheckpoint.class)
+                .setParameter("name", CHECKPOINT)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                .getResultList();
+        return checkpoints.isEmpty() ? null : checkpoints.get(0);
+    }
+
+    /**
+     * Evicts the changed rows from the entity cache, since Hibernate ORM may not have made the change, then reindexes
+     * them. The changes are also published, flagged as captured, so that cached search results are invalidated.
+     */
+    private void index(List<ChangeLogEntry> entries) {
+        Map<Class<?>, Set<Long>> changed = new LinkedHashMap<>();
+        Set<Long> bibliographies = new LinkedHashSet<>();
+        for (ChangeLogEntry entry : entries) {
+            if (BOOKS_OF_AUTHOR.equals(entry.entityType)) {
+                bibliographies.add(entry.entityId);
+            } else {
+                changed.computeIfAbsent(TYPES.get(entry.entityType), type -> new LinkedHashSet<>()).add(entry.entityId);
+            }
+        }
+        entityCache.evictBooksOf(bibliographies);
+        changed.forEach(entityCache::evict);
+        libraryIndexer.reindex(changed);
+        for (Map.Entry<Class<?>, Set<Long>> type : changed.entrySet()) {
+            for (Long id : type.getValue()) {
+                boolean deleted = entityManager.find(type.getKey(), id) == null;
+                changes.fire(LibraryChange.captured(type.getKey(), id, deleted));
+            }
+        }
+    }
+
+    private void installTriggers() {
+        entityManager.createNativeQuery(CAPTURE_AUTHOR).executeUpdate();
+        entityManager.createNativeQuery(CAPTURE_BOOK).executeUpdate();
+        for (String table : TYPES.keySet()) {
+            entityManager.createNativeQuery("DROP TRIGGER IF EXISTS library_capture ON " + table).executeUpdate();
+            entityManager.createNativeQuery("CREATE TRIGGER library_capture AFTER INSERT OR UPDATE OR DELETE ON "
+                    + table + " FOR EACH ROW EXECUTE PROCEDURE library_capture_" + table.toLowerCase() + "()")
+                    .executeUpdate();
+        }
+    }
+
+    private void dropTriggers() {
+        for (String table : TYPES.keySet()) {
+            entityManager.createNativeQuery("DROP TRIGGER IF EXISTS library_capture ON " + table).executeUpdate();
+        }
+    }
+
+    private Duration backoff(int attempts) {
+        Duration backoff = pollInterval.multipliedBy(1L << Math.min(attempts, 20));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    private void rollback() {
+        try {
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+        } catch (SystemException e) {
+            LOG.warn("Could not roll back change capture transaction", e);
+        }
+    }
+
+    /**
+     * Position and backlog of the change capture.
+     */
+    public static class CaptureStatus {
+
+        public boolean enabled;
+
+        /** Transaction id and entry id of the last indexed change log entry. */
+        public long checkpointTxId;
+
+        public long checkpointEntryId;
+
+        public Instant checkpointUpdatedAt;
+
+        /** Change log entries past the checkpoint. */
+        public long pending;
+
+        /** Change time of the oldest pending entry, {@code null} when there is none. */
+        public Instant oldest;
+
+        /** Entries indexed since startup. */
+        public long captured;
+
+        public long failedAttempts;
+    }
+}
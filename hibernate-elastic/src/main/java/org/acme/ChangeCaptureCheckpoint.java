@@ -0,0 +1,30 @@
+package org.acme;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Position of {@link ChangeCapture} in the change log: the last {@link ChangeLogEntry} it indexed.
+ * <p>
+ * Updated in the transaction that reads the entries, so a restart resumes right after the last indexed batch.
+ * The row is also locked while a batch is processed, so that a single instance reads the log at a time.
+ */
+@Entity
+@Table(name = "ChangeCaptureCheckpoint")
+public class ChangeCaptureCheckpoint extends PanacheEntityBase {
+
+    @Id
+    @Column(length = 50)
+    public String name;
+
+    public long txId;
+
+    public long entryId;
+
+    public Instant updatedAt;
+}
@@ -0,0 +1,41 @@
+package org.acme;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * A row change of the {@code Author} or {@code Book} table, written by a database trigger whoever made the change:
+ * the application, {@code import.sql}, a batch SQL job or another service.
+ * <p>
+ * Only inserted by the triggers of {@link ChangeCapture}, and read in {@code (txId, id)} order.
+ */
+@Entity
+@Table(name = "LibraryChangeLog", indexes = @Index(name = "LibraryChangeLog_position", columnList = "txId, id"))
+public class ChangeLogEntry extends PanacheEntityBase {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public Long id;
+
+    /** {@code Author}, {@code Book}, or {@code Author.books} when the bibliography of an author changed. */
+    @Column(length = 20, nullable = false)
+    public String entityType;
+
+    @Column(nullable = false)
+    public Long entityId;
+
+    /** Id of the writing transaction: entries become readable in this order, unlike in the order of {@link #id}. */
+    @Column(columnDefinition = "bigint default txid_current()", nullable = false)
+    public Long txId;
+
+    @Column(columnDefinition = "timestamp default now()", nullable = false)
+    public Instant changedAt;
+}
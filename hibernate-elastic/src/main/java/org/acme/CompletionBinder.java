@@ -0,0 +1,23 @@
+package org.acme;
+
+import com.google.gson.JsonPrimitive;
+import org.hibernate.search.backend.elasticsearch.ElasticsearchExtension;
+import org.hibernate.search.mapper.pojo.bridge.binding.ValueBindingContext;
+import org.hibernate.search.mapper.pojo.bridge.mapping.programmatic.ValueBinder;
+
+/**
+ * Maps a string to an Elasticsearch {@code completion} field, an in-memory FST used by {@link Suggester}
+ * to answer prefix lookups without running a query.
+ */
+public class CompletionBinder implements ValueBinder {
+
+    @Override
+    public void bind(ValueBindingContext<?> context) {
+        context.bridge(String.class,
+                (value, bridgeContext) -> new JsonPrimitive(value),
+                context.typeFactory()
+                        .extension(ElasticsearchExtension.get())
+                        .asNative()
+                        .mapping("{\"type\": \"completion\", \"analyzer\": \"simple\"}"));
+    }
+}
@@ -0,0 +1,23 @@
+package org.acme;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Reads fields from the {@code _source} of a document returned by Elasticsearch.
+ * <p>
+ * A field whose value is null is not stored in the source at all, so every field may be missing.
+ */
+final class DocumentSource {
+
+    private DocumentSource() {
+    }
+
+    /**
+     * The value of a text field of {@code source}, {@code null} if the field or the source is missing.
+     */
+    static String string(JsonObject source, String field) {
+        JsonElement value = source == null ? null : source.get(field);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+}
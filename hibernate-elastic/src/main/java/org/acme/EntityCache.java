@@ -0,0 +1,118 @@
+package org.acme;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Second-level cache of the {@link Author} and {@link Book} entities and of {@link Author#books}, which spares
+ * Postgres the hydration of hot search hits.
+ * <p>
+ * Entities are kept up to date by Hibernate ORM on every write. The bibliography of an author is the inverse side
+ * of {@link Book#author} though, so Hibernate ORM does not touch it when a book is added or removed: the write paths
+ * evict it explicitly. Rows changed outside Hibernate ORM are evicted by {@link ChangeCapture}.
+ */
+@ApplicationScoped
+public class EntityCache {
+
+    static final String BOOKS_OF_AUTHOR = Author.class.getName() + ".books";
+
+    static final List<String> REGIONS = Arrays.asList(Author.class.getName(), Book.class.getName(), BOOKS_OF_AUTHOR);
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    TransactionSynchronizationRegistry transactions;
+
+    /**
+     * Evicts the cached books of an author once the current transaction completes, so that no reader caches
+     * the old bibliography again in between.
+     */
+    public void evictBooksOf(Long authorId) {
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                entityManagerFactory.getCache().unwrap(org.hibernate.Cache.class)
+                        .evictCollectionData(BOOKS_OF_AUTHOR, authorId);
+            }
+        });
+    }
+
+    /**
+     * Evicts entities right away, for instance after they were changed in the database without Hibernate ORM.
+     */
+    public void evict(Class<?> type, Collection<Long> ids) {
+        org.hibernate.Cache cache = entityManagerFactory.getCache().unwrap(org.hibernate.Cache.class);
+        for (Long id : ids) {
+            cache.evictEntityData(type, id);
+        }
+    }
+
+    /**
+     * Evicts the cached books of authors right away, see {@link #evict}.
+     */
+    public void evictBooksOf(Collection<Long> authorIds) {
+        org.hibernate.Cache cache = entityManagerFactory.getCache().unwrap(org.hibernate.Cache.class);
+        for (Long authorId : authorIds) {
+            cache.evictCollectionData(BOOKS_OF_AUTHOR, authorId);
+        }
+    }
+
+    public List<RegionStats> stats() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<RegionStats> stats = new ArrayList<>(REGIONS.size());
+        for (String region : REGIONS) {
+            stats.add(new RegionStats(region, statistics.getDomainDataRegionStatistics(region)));
+        }
+        return stats;
+    }
+
+    public RegionStats stats(String region) {
+        return new RegionStats(region,
+                entityManagerFactory.unwrap(SessionFactory.class).getStatistics().getDomainDataRegionStatistics(region));
+    }
+
+    /**
+     * Counters of one cache region since startup. The regions don't count evictions: a {@link #size} stuck at the
+     * configured {@code memory.object-count} together with a growing miss count means the region is too small.
+     */
+    public static class RegionStats {
+
+        public String region;
+
+        public long hits;
+
+        public long misses;
+
+        public long puts;
+
+        public long size;
+
+        public double hitRatio;
+
+        RegionStats(String region, CacheRegionStatistics statistics) {
+            this.region = region;
+            this.hits = statistics.getHitCount();
+            this.misses = statistics.getMissCount();
+            this.puts = statistics.getPutCount();
+            this.size = statistics.getElementCountInMemory();
+            long requests = hits + misses;
+            this.hitRatio = requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+}
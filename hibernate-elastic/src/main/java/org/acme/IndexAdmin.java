@@ -0,0 +1,175 @@
+package org.acme;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.hibernate.search.backend.elasticsearch.ElasticsearchBackend;
+import org.hibernate.search.backend.elasticsearch.document.model.impl.ElasticsearchIndexModel;
+import org.hibernate.search.backend.elasticsearch.document.model.lowlevel.impl.LowLevelIndexMetadataBuilder;
+import org.hibernate.search.backend.elasticsearch.gson.spi.GsonProvider;
+import org.hibernate.search.backend.elasticsearch.lowlevel.index.impl.IndexMetadata;
+import org.hibernate.search.backend.elasticsearch.lowlevel.syntax.metadata.impl.Elasticsearch64IndexMetadataSyntax;
+import org.hibernate.search.mapper.orm.mapping.SearchMapping;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Index-level Elasticsearch operations that Hibernate Search does not expose, run through the REST client
+ * of the Hibernate Search backend.
+ * <p>
+ * Hibernate Search reads through the {@code <name>-read} alias and writes through the {@code <name>-write} alias
+ * of each index; the index behind them is {@code <name>-000001} when Hibernate Search created it.
+ */
+@ApplicationScoped
+public class IndexAdmin {
+
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson", "UTF-8");
+
+    @Inject
+    SearchMapping searchMapping;
+
+    private volatile RestClient client;
+
+    public RestClient client() {
+        if (client == null) {
+            client = searchMapping.backend().unwrap(ElasticsearchBackend.class).client(RestClient.class);
+        }
+        return client;
+    }
+
+    /** Name of the index of {@code type}, without version suffix: the prefix of its aliases. */
+    public String name(Class<?> type) {
+        return searchMapping.indexedEntity(type).indexManager().descriptor().hibernateSearchName()
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The mapping and analysis settings Hibernate Search would create the index of {@code type} with, from the
+     * current entity mapping and analysis configurer, as {@code {"mappings": ..., "settings": {"analysis": ...}}}.
+     * <p>
+     * Hibernate Search 6.0 has no API to export its schema, so this builds it the way its schema creator does.
+     */
+    public JsonObject expectedSchema(Class<?> type) {
+        ElasticsearchIndexModel model = (ElasticsearchIndexModel) searchMapping.indexedEntity(type).indexManager()
+                .descriptor();
+        LowLevelIndexMetadataBuilder builder = new LowLevelIndexMetadataBuilder(
+                new Elasticsearch64IndexMetadataSyntax(), model.names());
+        model.contributeLowLevelMetadata(builder);
+        IndexMetadata metadata = builder.build();
+        Gson gson = GsonProvider.create(GsonBuilder::new, false).getGsonNoSerializeNulls();
+        JsonObject schema = new JsonObject();
+        schema.add("mappings", gson.toJsonTree(metadata.getMapping()));
+        schema.add("settings", gson.toJsonTree(metadata.getSettings()));
+        return schema;
+    }
+
+    public String readAlias(Class<?> type) {
+        return name(type) + "-read";
+    }
+
+    public String writeAlias(Class<?> type) {
+        return name(type) + "-write";
+    }
+
+    /** The index an alias currently points to. */
+    public String indexBehind(String alias) {
+        JsonObject indexes = send("GET", "/_alias/" + alias, null);
+        if (indexes.size() != 1) {
+            throw new IllegalStateException("Alias " + alias + " points to " + indexes.keySet() + ", expected one index");
+        }
+        return indexes.keySet().iterator().next();
+    }
+
+    /**
+     * Moves {@code alias} from one index to another in a single, atomic alias update.
+     */
+    public void moveAlias(String alias, String from, String to, boolean writeIndex) {
+        JsonObject remove = new JsonObject();
+        remove.addProperty("index", from);
+        remove.addProperty("alias", alias);
+        JsonObject add = new JsonObject();
+        add.addProperty("index", to);
+        add.addProperty("alias", alias);
+        if (writeIndex) {
+            add.addProperty("is_write_index", true);
+        }
+        JsonObject removeAction = new JsonObject();
+        removeAction.add("remove", remove);
+        JsonObject addAction = new JsonObject();
+        addAction.add("add", add);
+        JsonArray actions = new JsonArray();
+        actions.add(removeAction);
+        actions.add(addAction);
+        JsonObject body = new JsonObject();
+        body.add("actions", actions);
+        send("POST", "/_aliases", body);
+    }
+
+    public JsonObject send(String method, String path, JsonElement body) {
+        return perform(method, path, body == null ? null : new NStringEntity(body.toString(), ContentType.APPLICATION_JSON));
+    }
+
+    /**
+     * Sends a request without blocking: the returned stage completes on an I/O thread of the REST client, so
+     * callers continue with the {@code *Async} stage methods and an executor of their own.
+     */
+    public CompletionStage<JsonObject> sendAsync(String method, String path, JsonElement body) {
+        Request request = new Request(method, path);
+        if (body != null) {
+            request.setEntity(new NStringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        }
+        CompletableFuture<JsonObject> response = new CompletableFuture<>();
+        client().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response result) {
+                try {
+                    response.complete(JsonParser.parseString(EntityUtils.toString(result.getEntity())).getAsJsonObject());
+                } catch (IOException | RuntimeException e) {
+                    response.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Sends a bulk request, given as newline-delimited actions and sources.
+     */
+    public JsonObject bulk(String actions) {
+        return perform("POST", "/_bulk", new NStringEntity(actions, NDJSON));
+    }
+
+    private JsonObject perform(String method, String path, NStringEntity entity) {
+        Request request = new Request(method, path);
+        if (entity != null) {
+            request.setEntity(entity);
+        }
+        try {
+            Response response = client().performRequest(request);
+            return JsonParser.parseString(EntityUtils.toString(response.getEntity())).getAsJsonObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(method + " " + path + " failed", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies the configured shard count, replica count and refresh interval to the library indexes.
+ * <p>
+ * Hibernate Search creates the indexes with the Elasticsearch defaults and only lets us configure their analysis,
+ * so on startup each index gets an index template matching its versioned names, and its dynamic settings are
+ * updated in place. The shard count of an existing index cannot change: it is taken from the template when the
+ * index is next created, on the next start with {@code drop-and-create} or by a blue/green rebuild.
+ * <p>
+ * While a mass indexer fills an index, its refresh interval and replicas are relaxed, then restored and the index
+ * refreshed once done: bulk writes don't create a segment every second nor get copied to replicas one by one.
+ */
+@ApplicationScoped
+public class IndexSettingsManager {
+
+    private static final Logger LOG = Logger.getLogger(IndexSettingsManager.class);
+
+    private static final List<Class<?>> TYPES = Arrays.asList(Author.class, Book.class);
+
+    @Inject
+    IndexAdmin indexAdmin;
+
+    @ConfigProperty(name = "library.index.number-of-shards", defaultValue = "1")
+    int shards;
+
+    @ConfigProperty(name = "library.index.number-of-replicas", defaultValue = "1")
+    int replicas;
+
+    @ConfigProperty(name = "library.index.refresh-interval", defaultValue = "1s")
+    String refreshInterval;
+
+    @ConfigProperty(name = "library.index.mass-indexing.number-of-replicas", defaultValue = "0")
+    int massIndexingReplicas;
+
+    @ConfigProperty(name = "library.index.mass-indexing.refresh-interval", defaultValue = "-1")
+    String massIndexingRefreshInterval;
+
+    /**
+     * Runs before {@link LibraryIndexer}, so that the indexes have their settings before mass indexing relaxes them.
+     */
+    void onStart(@Observes @Priority(Interceptor.Priority.APPLICATION) StartupEvent ev) {
+        for (Class<?> type : TYPES) {
+            String name = indexAdmin.name(type);
+            indexAdmin.send("PUT", "/_template/library-" + name, template(name, shards, replicas, refreshInterval));
+            String index = indexAdmin.indexBehind(indexAdmin.writeAlias(type));
+            update(index, replicas, refreshInterval);
+            int actualShards = settingsOf(index).shards;
+            if (actualShards != shards) {
+                LOG.warnf("Index %s has %d shards instead of %d, rebuild it to apply the new shard count",
+                        index, actualShards, shards);
+            }
+        }
+    }
+
+    /**
+     * Relaxes the settings of {@code index} for the duration of a mass indexing.
+     */
+    public void relax(String index) {
+        LOG.debugf("Relaxing %s for mass indexing: refresh interval %s, %d replicas",
+                index, massIndexingRefreshInterval, massIndexingReplicas);
+        update(index, massIndexingReplicas, massIndexingRefreshInterval);
+    }
+
+    /**
+     * Restores the configured settings of {@code index} after a mass indexing, and makes its documents searchable.
+     */
+    public void restore(String index) {
+        update(index, replicas, refreshInterval);
+        indexAdmin.send("POST", "/" + index + "/_refresh", null);
+    }
+
+    /**
+     * Overrides the shard count, replicas and refresh interval of an index creation body.
+     */
+    public void applyTo(JsonObject creation) {
+        JsonObject settings = creation.getAsJsonObject("settings").getAsJsonObject("index");
+        settings.addProperty("number_of_shards", String.valueOf(shards));
+        settings.addProperty("number_of_replicas", String.valueOf(replicas));
+        settings.addProperty("refresh_interval", refreshInterval);
+    }
+
+    public List<IndexSettings> settings() {
+        List<IndexSettings> settings = new ArrayList<>();
+        for (Class<?> type : TYPES) {
+            IndexSettings index = settingsOf(indexAdmin.indexBehind(indexAdmin.readAlias(type)));
+            index.type = type.getSimpleName();
+            settings.add(index);
+        }
+        return settings;
+    }
+
+    private IndexSettings settingsOf(String index) {
+        JsonObject response = indexAdmin.send("GET", "/" + index + "/_settings?include_defaults=true", null)
+                .getAsJsonObject(index);
+        IndexSettings settings = new IndexSettings();
+        settings.index = index;
+        settings.shards = Integer.parseInt(setting(response, "number_of_shards"));
+        settings.replicas = Integer.parseInt(setting(response, "number_of_replicas"));
+        settings.refreshInterval = setting(response, "refresh_interval");
+        return settings;
+    }
+
+    private void update(String index, int replicas, String refreshInterval) {
+        JsonObject settings = new JsonObject();
+        settings.addProperty("number_of_replicas", replicas);
+        settings.addProperty("refresh_interval", refreshInterval);
+        JsonObject body = new JsonObject();
+        body.add("index", settings);
+        indexAdmin.send("PUT", "/" + index + "/_settings", body);
+    }
+
+    /**
+     * The value of an index setting, as set on the index or else the default of the cluster.
+     */
+    static String setting(JsonObject response, String name) {
+        for (String section : Arrays.asList("settings", "defaults")) {
+            JsonObject settings = response.getAsJsonObject(section);
+            JsonElement index = settings == null ? null : settings.get("index");
+            if (index != null && index.getAsJsonObject().has(name)) {
+                return index.getAsJsonObject().get(name).getAsString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A legacy index template applying the settings to every versioned index of {@code name}; the aliases,
+     * analysis and mapping are still set by Hibernate Search, or by the blue/green rebuild from its mapping.
+     */
+    static JsonObject template(String name, int shards, int replicas, String refreshInterval) {
+        JsonArray patterns = new JsonArray();
+        patterns.add(name + "-0*");
+        JsonObject settings = new JsonObject();
+        settings.addProperty("number_of_shards", shards);
+        settings.addProperty("number_of_replicas", replicas);
+        settings.addProperty("refresh_interval", refreshInterval);
+        JsonObject index = new JsonObject();
+        index.add("index", settings);
+        JsonObject template = new JsonObject();
+        template.add("index_patterns", patterns);
+        template.add("settings", index);
+        return template;
+    }
+
+    /**
+     * Settings of the index an entity type is searched in.
+     */
+    public static class IndexSettings {
+
+        public String type;
+
+        public String index;
+
+        public int shards;
+
+        public int replicas;
+
+        public String refreshInterval;
+    }
+}
@@ -0,0 +1,372 @@
+package org.acme;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.search.engine.backend.work.execution.DocumentCommitStrategy;
+import org.hibernate.search.engine.backend.work.execution.DocumentRefreshStrategy;
+import org.hibernate.search.mapper.orm.Search;
+import org.hibernate.search.mapper.orm.automaticindexing.session.AutomaticIndexingSynchronizationConfigurationContext;
+import org.hibernate.search.mapper.orm.automaticindexing.session.AutomaticIndexingSynchronizationStrategy;
+import org.hibernate.search.mapper.orm.work.SearchIndexingPlanExecutionReport;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.UserTransaction;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes indexing of the write endpoints crash-safe: every {@link LibraryChange} is also recorded as an
+ * {@link IndexingOutboxEntry}, in the transaction of the change itself. The entries of a transaction are inserted
+ * together just before it commits, after the changed entities, so that they are batched instead of alternating
+ * with the entity inserts.
+ * <p>
+ * Automatic indexing still sends the change right after commit, asynchronously, and acknowledges the entries of
+ * the transaction once Elasticsearch accepted them. A background processor deletes acknowledged entries, and
+ * reindexes the others from the database once their grace period is over: the change was never acknowledged because
+ * Elasticsearch was unavailable, or because the application stopped before. It works in bulk, retries failed batches
+ * with an exponential backoff, and locks the entries it processes so that several instances can share the outbox.
+ */
+@ApplicationScoped
+public class IndexingOutbox {
+
+    private static final Logger LOG = Logger.getLogger(IndexingOutbox.class);
+
+    private static final Map<String, Class<?>> TYPES = new LinkedHashMap<>();
+
+    static {
+        TYPES.put(Author.class.getSimpleName(), Author.class);
+        TYPES.put(Book.class.getSimpleName(), Book.class);
+    }
+
+    private static final int DELETE_CHUNK_SIZE = 1000;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Inject
+    TransactionSynchronizationRegistry transactions;
+
+    @Inject
+    LibraryIndexer libraryIndexer;
+
+    @ConfigProperty(name = "library.outbox.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "library.outbox.poll-interval", defaultValue = "PT1S")
+    Duration pollInterval;
+
+    @ConfigProperty(name = "library.outbox.grace-period", defaultValue = "PT10S")
+    Duration gracePeriod;
+
+    @ConfigProperty(name = "library.outbox.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "library.outbox.max-backoff", defaultValue = "PT5M")
+    Duration maxBackoff;
+
+    private final Queue<Long> acknowledged = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder reindexed = new LongAdder();
+
+    private final LongAdder failedAttempts = new LongAdder();
+
+    private ScheduledExecutorService executor;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor();
+        long interval = pollInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    void onChange(@Observes(during = TransactionPhase.IN_PROGRESS) LibraryChange change) {
+        // captured changes are indexed by the change capture already
+        if (!enabled || change.captured) {
+            return;
+        }
+        IndexingOutboxEntry entry = new IndexingOutboxEntry();
+        entry.entityType = change.type.getSimpleName();
+        entry.entityId = change.id;
+        entry.createdAt = Instant.now();
+        entry.availableAt = entry.createdAt.plus(gracePeriod);
+        pendingEntries().entries.add(entry);
+    }
+
+    /**
+     * Makes the current transaction wait until its changes are searchable.
+     */
+    public void readYourWrites() {
+        if (!enabled) {
+            Search.session(entityManager)
+                    .automaticIndexingSynchronizationStrategy(AutomaticIndexingSynchronizationStrategy.readSync());
+            return;
+        }
+        PendingEntries pending = pendingEntries();
+        pending.refresh = true;
+        // the strategy is configured when it is set
+        Search.session(entityManager).automaticIndexingSynchronizationStrategy(pending);
+    }
+
+    public OutboxStatus status() {
+        OutboxStatus status = new OutboxStatus();
+        Object[] pending = entityManager.createQuery(
+                "select count(e), min(e.createdAt) from IndexingOutboxEntry e", Object[].class)
+                .getSingleResult();
+        status.pending = (Long) pending[0];
+        status.oldest = (Instant) pending[1];
+        status.acknowledged = acknowledged.size();
+        status.reindexed = reindexed.sum();
+        status.failedAttempts = failedAttempts.sum();
+        return status;
+    }
+
+    /**
+     * The entries recorded by the current transaction, acknowledged together once automatic indexing succeeded.
+     */
+    private PendingEntries pendingEntries() {
+        PendingEntries pending = (PendingEntries) transactions.getResource(PendingEntries.class);
+        if (pending == null) {
+            pending = new PendingEntries(entityManager.unwrap(Session.class));
+            transactions.putResource(PendingEntries.class, pending);
+            // runs after the flush of the changes by Hibernate ORM, registered when the session joined the transaction
+            transactions.registerInterposedSynchronization(pending);
+            Search.session(entityManager).automaticIndexingSynchronizationStrategy(pending);
+        }
+        return pending;
+    }
+
+    void poll() {
+        try {
+            deleteAcknowledged();
+            // keep going while there is a backlog, e.g. after an outage
+            while (reindexBatch() == batchSize) {
+                deleteAcknowledged();
+            }
+        } catch (Exception e) {
+            LOG.warn("Processing the indexing outbox failed", e);
+        }
+    }
+
+    private void deleteAcknowledged() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (Long id = acknowledged.poll(); id != null; id = acknowledged.poll()) {
+            ids.add(id);
+            if (ids.size() == DELETE_CHUNK_SIZE || acknowledged.isEmpty()) {
+                transaction.begin();
+                try {
+                    delete(ids);
+                    transaction.commit();
+                } catch (Exception e) {
+                    rollback();
+                    acknowledged.addAll(ids);
+                    throw e;
+                }
+                ids.clear();
+            }
+        }
+    }
+
+    /**
+     * Reindexes the entities of the oldest available entries, then deletes them.
+     *
+     * @return the number of entries processed
+     */
+    private int reindexBatch() throws Exception {
+        List<IndexingOutboxEntry> entries;
+        transaction.begin();
+        try {
+            entries = entityManager.createQuery("from IndexingOutboxEntry e where e.availableAt <= :now order by e.id",
+                    IndexingOutboxEntry.class)
+                    .setParameter("now", Instant.now())
+                    .setMaxResults(batchSize)
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    // entries locked by another instance are processed there
+                    .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                    .getResultList();
+        } catch (Exception e) {
+            rollback();
+            throw e;
+        }
+        if (entries.isEmpty()) {
+            transaction.commit();
+            return 0;
+        }
+        List<Long> ids = new ArrayList<>(entries.size());
+        int attempts = 0;
+        for (IndexingOutboxEntry entry : entries) {
+            ids.add(entry.id);
+            attempts = Math.max(attempts, entry.attempts);
+        }
+        try {
+            reindex(entries);
+            delete(ids);
+            transaction.commit();
+        } catch (Exception e) {
+            rollback();
+            failedAttempts.increment();
+            Duration backoff = backoff(attempts + 1);
+            LOG.warnf(e, "Reindexing %d outbox entries failed (attempt %d), retrying in %s", ids.size(), attempts + 1,
+                    backoff);
+            retryLater(ids, backoff);
+            return 0;
+        }
+        reindexed.add(entries.size());
+        return entries.size();
+    }
+
+    private void reindex(List<IndexingOutboxEntry> entries) {
+        Map<Class<?>, Set<Long>> changed = new LinkedHashMap<>();
+        for (IndexingOutboxEntry entry : entries) {
+            changed.computeIfAbsent(TYPES.get(entry.entityType), type -> new LinkedHashSet<>()).add(entry.entityId);
+        }
+        libraryIndexer.reindex(changed);
+    }
+
+    private void retryLater(List<Long> ids, Duration backoff) {
+        try {
+            transaction.begin();
+            entityManager.createQuery("update IndexingOutboxEntry e set e.attempts = e.attempts + 1,"
+                    + " e.availableAt = :next where e.id in :ids")
+                    .setParameter("next", Instant.now().plus(backoff))
+                    .setParameter("ids", ids)
+                    .executeUpdate();
+            transaction.commit();
+        } catch (Exception e) {
+            rollback();
+            LOG.warn("Could not postpone failed outbox entries, they will be retried right away", e);
+        }
+    }
+
+    private void delete(List<Long> ids) {
+        entityManager.createQuery("delete from IndexingOutboxEntry e where e.id in :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    private Duration backoff(int attempts) {
+        Duration backoff = pollInterval.multipliedBy(1L << Math.min(attempts, 20));
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    private void rollback() {
+        try {
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+        } catch (SystemException e) {
+            LOG.warn("Could not roll back indexing outbox transaction", e);
+        }
+    }
+
+    /**
+     * Indexes a transaction's changes like the {@code async} strategy, or like {@code read-sync} if the caller wants to
+     * read its writes, and acknowledges the transaction's entries once Elasticsearch accepted all of them.
+     */
+    private class PendingEntries implements AutomaticIndexingSynchronizationStrategy, Synchronization {
+
+        final Session session;
+
+        final List<IndexingOutboxEntry> entries = new ArrayList<>();
+
+        final List<Long> entryIds = new ArrayList<>();
+
+        boolean refresh;
+
+        PendingEntries(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void beforeCompletion() {
+            if (transactions.getRollbackOnly() || entries.isEmpty()) {
+                return;
+            }
+            for (IndexingOutboxEntry entry : entries) {
+                session.persist(entry);
+                entryIds.add(entry.id);
+            }
+            session.flush();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+        }
+
+        @Override
+        public void apply(AutomaticIndexingSynchronizationConfigurationContext context) {
+            context.documentCommitStrategy(refresh ? DocumentCommitStrategy.FORCE : DocumentCommitStrategy.NONE);
+            context.documentRefreshStrategy(refresh ? DocumentRefreshStrategy.FORCE : DocumentRefreshStrategy.NONE);
+            context.indexingFutureHandler(future -> {
+                CompletableFuture<?> acknowledging = future.whenComplete(this::acknowledge);
+                if (refresh) {
+                    // a failure is not reported to the caller: the outbox retries it
+                    acknowledging.handle((report, failure) -> null).join();
+                }
+            });
+        }
+
+        private void acknowledge(SearchIndexingPlanExecutionReport report, Throwable failure) {
+            if (failure == null && !report.throwable().isPresent()) {
+                acknowledged.addAll(entryIds);
+            } else {
+                LOG.debugf("Automatic indexing of outbox entries %s failed, leaving them to the processor", entryIds);
+            }
+        }
+    }
+
+    /**
+     * Backlog of the outbox: entries not confirmed in Elasticsearch yet, and what the processor did since startup.
+     */
+    public static class OutboxStatus {
+
+        public long pending;
+
+        /** Creation time of the oldest pending entry, {@code null} when the outbox is empty. */
+        public Instant oldest;
+
+        /** Entries confirmed by automatic indexing, not deleted yet. */
+        public long acknowledged;
+
+        /** Entries reindexed by the processor. */
+        public long reindexed;
+
+        public long failedAttempts;
+    }
+}
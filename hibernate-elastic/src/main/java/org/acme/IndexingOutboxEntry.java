@@ -0,0 +1,36 @@
+package org.acme;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * An author or book change still to be confirmed in Elasticsearch, written in the transaction of the change itself.
+ * <p>
+ * Only the type and id are recorded: the processor reindexes the entity as it is in the database when the entry is
+ * processed, so several changes of the same entity collapse into one document write.
+ */
+@Entity
+@Table(name = "IndexingOutbox", indexes = @Index(name = "IndexingOutbox_availableAt", columnList = "availableAt"))
+public class IndexingOutboxEntry extends PanacheEntity {
+
+    /** Simple name of the changed entity type. */
+    @Column(length = 20, nullable = false)
+    public String entityType;
+
+    @Column(nullable = false)
+    public Long entityId;
+
+    @Column(nullable = false)
+    public Instant createdAt;
+
+    /** The entry is left to automatic indexing until then, and after a failed attempt until the next retry. */
+    @Column(nullable = false)
+    public Instant availableAt;
+
+    public int attempts;
+}
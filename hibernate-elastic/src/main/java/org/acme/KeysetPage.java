@@ -0,0 +1,42 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import javax.ws.rs.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a keyset ({@code search_after}) pagination.
+ * <p>
+ * {@link #next} is an opaque cursor holding the sort values of the last hit; pass it back as {@code after}
+ * to get the following page. It is {@code null} once the last page has been reached.
+ */
+public class KeysetPage<T> {
+
+    public List<T> hits;
+
+    public String next;
+
+    public KeysetPage(List<T> hits, String next) {
+        this.hits = hits;
+        this.next = next;
+    }
+
+    static String encodeCursor(JsonArray sortValues) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(sortValues.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static JsonArray decodeCursor(String cursor) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return JsonParser.parseString(json).getAsJsonArray();
+        } catch (IllegalArgumentException | IllegalStateException | JsonParseException e) {
+            throw new BadRequestException("Invalid pagination cursor: " + cursor);
+        }
+    }
+}
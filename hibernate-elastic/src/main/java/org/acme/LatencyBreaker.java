@@ -0,0 +1,90 @@
+package org.acme;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker driven by backend latency rather than by errors.
+ * <p>
+ * Every search feeds its latency into an exponentially weighted moving average. When the average climbs above the
+ * threshold the breaker opens for a while; once that delay is over it lets queries through again, and the next
+ * sample either closes it or opens it for another round.
+ */
+class LatencyBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /** Weight of the latest sample in the moving average. */
+    private static final double ALPHA = 0.2;
+
+    private final long thresholdNanos;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private double averageNanos;
+    private long openedAt;
+    private long trips;
+
+    LatencyBreaker(long threshold, long openDuration, TimeUnit unit, LongSupplier clock) {
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.openNanos = unit.toNanos(openDuration);
+        this.clock = clock;
+    }
+
+    /**
+     * Whether an expensive query may run now.
+     */
+    synchronized boolean allows() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            averageNanos = 0;
+        }
+        return state != State.OPEN;
+    }
+
+    synchronized void record(long latencyNanos) {
+        if (state == State.HALF_OPEN) {
+            if (latencyNanos > thresholdNanos) {
+                trip();
+            } else {
+                state = State.CLOSED;
+                averageNanos = latencyNanos;
+            }
+            return;
+        }
+        averageNanos = averageNanos == 0 ? latencyNanos : ALPHA * latencyNanos + (1 - ALPHA) * averageNanos;
+        if (state == State.CLOSED && averageNanos > thresholdNanos) {
+            trip();
+        }
+    }
+
+    private void trip() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        trips++;
+    }
+
+    /**
+     * Seconds until the breaker lets expensive queries through again, at least one.
+     */
+    synchronized long retryAfterSeconds() {
+        long remaining = openNanos - (clock.getAsLong() - openedAt);
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining));
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    synchronized long trips() {
+        return trips;
+    }
+
+    synchronized long averageNanos() {
+        return (long) averageNanos;
+    }
+}
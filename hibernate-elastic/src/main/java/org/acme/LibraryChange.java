@@ -0,0 +1,43 @@
+package org.acme;
+
+/**
+ * CDI event fired by the write paths for every author or book they insert, update or delete.
+ * <p>
+ * Fired inside the writing transaction: observers that must only react to committed changes
+ * observe it with {@code during = TransactionPhase.AFTER_SUCCESS}.
+ */
+public class LibraryChange {
+
+    public final Class<?> type;
+
+    public final Long id;
+
+    public final boolean deleted;
+
+    /** Read from the database change log by {@link ChangeCapture}, which also indexed it. */
+    public final boolean captured;
+
+    private LibraryChange(Class<?> type, Long id, boolean deleted, boolean captured) {
+        this.type = type;
+        this.id = id;
+        this.deleted = deleted;
+        this.captured = captured;
+    }
+
+    public static LibraryChange upserted(Class<?> type, Long id) {
+        return new LibraryChange(type, id, false, false);
+    }
+
+    public static LibraryChange deleted(Class<?> type, Long id) {
+        return new LibraryChange(type, id, true, false);
+    }
+
+    public static LibraryChange captured(Class<?> type, Long id, boolean deleted) {
+        return new LibraryChange(type, id, deleted, true);
+    }
+
+    @Override
+    public String toString() {
+        return (deleted ? "deleted " : "upserted ") + type.getSimpleName() + "#" + id;
+    }
+}
@@ -0,0 +1,24 @@
+package org.acme;
+
+/**
+ * One ranked hit of a search across authors and books: either {@link #author} or {@link #book} is set,
+ * according to {@link #type}.
+ */
+public class LibraryHit {
+
+    public String type;
+
+    public Long id;
+
+    public float score;
+
+    public AuthorView author;
+
+    public BookView book;
+
+    LibraryHit(String type, Long id, float score) {
+        this.type = type;
+        this.id = id;
+        this.score = score;
+    }
+}
@@ -0,0 +1,180 @@
+package org.acme;
+
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Session;
+import org.hibernate.search.mapper.orm.Search;
+import org.hibernate.search.mapper.orm.automaticindexing.session.AutomaticIndexingSynchronizationStrategy;
+import org.hibernate.search.mapper.orm.mapping.SearchMapping;
+import org.hibernate.search.mapper.orm.massindexing.MassIndexer;
+import org.hibernate.search.mapper.orm.session.SearchSession;
+import org.hibernate.search.mapper.orm.work.SearchIndexingPlan;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reindexes authors and books on startup, with one tunable mass indexer per entity type.
+ */
+@ApplicationScoped
+public class LibraryIndexer {
+
+    private static final Logger LOG = Logger.getLogger(LibraryIndexer.class);
+
+    public enum Mode {
+        /** Always reindex every entity type. */
+        ALWAYS,
+        /** Only reindex entity types whose document count differs from the database row count. */
+        IF_OUT_OF_SYNC,
+        /**
+         * Rebuild every index into a new one in the background, see {@link BlueGreenReindexer}. Requires a schema
+         * management strategy keeping the existing indexes, so that searches read them during the rebuild.
+         */
+        BLUE_GREEN,
+        /** Never reindex on startup. */
+        NEVER
+    }
+
+    @Inject
+    SearchSession searchSession;
+
+    @Inject
+    SearchMapping searchMapping;
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    BlueGreenReindexer blueGreenReindexer;
+
+    @Inject
+    IndexAdmin indexAdmin;
+
+    @Inject
+    IndexSettingsManager indexSettings;
+
+    @ConfigProperty(name = "library.reindex.mode", defaultValue = "always")
+    String mode;
+
+    @ConfigProperty(name = "quarkus.hibernate-search-orm.schema-management.strategy", defaultValue = "create-or-validate")
+    String schemaManagement;
+
+    @ConfigProperty(name = "library.reindex.background", defaultValue = "false")
+    boolean background;
+
+    @ConfigProperty(name = "library.reindex.author.threads-to-load-objects", defaultValue = "2")
+    int authorThreads;
+
+    @ConfigProperty(name = "library.reindex.book.threads-to-load-objects", defaultValue = "4")
+    int bookThreads;
+
+    @ConfigProperty(name = "library.reindex.batch-size-to-load-objects", defaultValue = "25")
+    int batchSize;
+
+    @ConfigProperty(name = "library.reindex.id-fetch-size", defaultValue = "100")
+    int idFetchSize;
+
+    @ConfigProperty(name = "library.reindex.log-interval", defaultValue = "10000")
+    long logInterval;
+
+    @Transactional
+    void onStart(@Observes StartupEvent ev) throws InterruptedException {
+        Mode reindexMode = Mode.valueOf(mode.toUpperCase().replace('-', '_'));
+        if (reindexMode == Mode.BLUE_GREEN && schemaManagement.trim().startsWith("drop-")) {
+            throw new IllegalStateException("library.reindex.mode=blue-green rebuilds the existing indexes, but"
+                    + " quarkus.hibernate-search-orm.schema-management.strategy=" + schemaManagement.trim()
+                    + " dropped them on startup: use create-or-validate");
+        }
+        // only reindex if we imported some content
+        if (reindexMode == Mode.NEVER || Book.count() == 0) {
+            return;
+        }
+        if (reindexMode == Mode.BLUE_GREEN) {
+            blueGreenReindexer.rebuild();
+            return;
+        }
+        List<CompletableFuture<?>> runs = new ArrayList<>();
+        if (reindexMode == Mode.ALWAYS || outOfSync(Author.class, Author.count())) {
+            runs.add(start(Author.class));
+        }
+        if (reindexMode == Mode.ALWAYS || outOfSync(Book.class, Book.count())) {
+            runs.add(start(Book.class));
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, failure) -> {
+                    if (failure != null) {
+                        LOG.error("Reindexing on startup failed", failure);
+                    }
+                });
+        if (!background) {
+            try {
+                all.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Reindexing on startup failed", e.getCause());
+            }
+        }
+    }
+
+    private boolean outOfSync(Class<?> type, long rows) {
+        long documents = searchSession.search(type)
+                .where(f -> f.matchAll())
+                .fetchTotalHitCount();
+        if (documents == rows) {
+            LOG.infof("Index of %s is in sync (%d documents), skipping reindex", type.getSimpleName(), documents);
+            return false;
+        }
+        return true;
+    }
+
+    private CompletableFuture<?> start(Class<?> type) {
+        String index = indexAdmin.indexBehind(indexAdmin.writeAlias(type));
+        indexSettings.relax(index);
+        return massIndexer(type).start().toCompletableFuture()
+                .whenComplete((ignored, failure) -> indexSettings.restore(index));
+    }
+
+    /**
+     * Sends the current state of the changed entities, each entity once however many times it changed, purges those
+     * deleted since, and waits until Elasticsearch accepted them. Runs in the caller's transaction.
+     */
+    void reindex(Map<Class<?>, Set<Long>> changed) {
+        SearchSession session = Search.session(entityManager);
+        session.automaticIndexingSynchronizationStrategy(AutomaticIndexingSynchronizationStrategy.writeSync());
+        SearchIndexingPlan plan = session.indexingPlan();
+        Session ormSession = entityManager.unwrap(Session.class);
+        for (Map.Entry<Class<?>, Set<Long>> type : changed.entrySet()) {
+            List<Long> ids = new ArrayList<>(type.getValue());
+            List<?> entities = ormSession.byMultipleIds(type.getKey()).multiLoad(ids);
+            for (int i = 0; i < ids.size(); i++) {
+                Object entity = entities.get(i);
+                if (entity == null) {
+                    plan.purge(type.getKey(), ids.get(i), null);
+                } else {
+                    plan.addOrUpdate(entity);
+                }
+            }
+        }
+        plan.execute();
+    }
+
+    /**
+     * A mass indexer for {@code type} with the configured tuning. It writes through the write alias of the index.
+     */
+    MassIndexer massIndexer(Class<?> type) {
+        return searchMapping.scope(type).massIndexer()
+                .threadsToLoadObjects(type == Author.class ? authorThreads : bookThreads)
+                .batchSizeToLoadObjects(batchSize)
+                .idFetchSize(idFetchSize)
+                .monitor(new MassIndexingProgressMonitor(type.getSimpleName(), logInterval));
+    }
+}
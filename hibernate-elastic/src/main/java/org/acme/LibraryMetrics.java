@@ -0,0 +1,173 @@
+package org.acme;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.engine.search.query.SearchResult;
+import org.hibernate.search.engine.search.query.dsl.SearchQueryOptionsStep;
+import org.hibernate.search.util.common.SearchTimeoutException;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and size histograms of the library endpoints, exposed in Prometheus format on {@code /q/metrics}.
+ * <p>
+ * Every meter is tagged with the endpoint ({@code GET book/search}) and the query type (simpleQueryString, wildcard,
+ * phrase, fuzzy...; {@code none} for writes).
+ */
+@ApplicationScoped
+public class LibraryMetrics {
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    MeteredRequest request;
+
+    @Inject
+    SearchResultCache resultCache;
+
+    @Inject
+    EntityCache entityCache;
+
+    @Inject
+    QueryGuard guard;
+
+    @ConfigProperty(name = "library.search.max-size", defaultValue = "10000")
+    int maxSize;
+
+    void bindCacheMetrics(@Observes StartupEvent ev) {
+        FunctionCounter.builder("library.cache.hits", resultCache, cache -> cache.stats().hits)
+                .description("Search results served from the cache").register(registry);
+        FunctionCounter.builder("library.cache.misses", resultCache, cache -> cache.stats().misses)
+                .description("Search results loaded from Elasticsearch on a cache miss").register(registry);
+        FunctionCounter.builder("library.cache.evictions", resultCache, cache -> cache.stats().evictions)
+                .description("Cached search results evicted by size or TTL").register(registry);
+        FunctionCounter.builder("library.cache.invalidations", resultCache, cache -> cache.stats().invalidations)
+                .description("Cache invalidations caused by writes").register(registry);
+        Gauge.builder("library.cache.size", resultCache, cache -> cache.stats().size)
+                .description("Cached search results").register(registry);
+    }
+
+    void bindEntityCacheMetrics(@Observes StartupEvent ev) {
+        for (String region : EntityCache.REGIONS) {
+            Tags tags = Tags.of("region", region);
+            FunctionCounter.builder("library.entity.cache.hits", entityCache, cache -> cache.stats(region).hits)
+                    .tags(tags).description("Entities or collections hydrated from the second-level cache").register(registry);
+            FunctionCounter.builder("library.entity.cache.misses", entityCache, cache -> cache.stats(region).misses)
+                    .tags(tags).description("Second-level cache lookups that went to Postgres").register(registry);
+            FunctionCounter.builder("library.entity.cache.puts", entityCache, cache -> cache.stats(region).puts)
+                    .tags(tags).description("Entries put in the second-level cache").register(registry);
+            Gauge.builder("library.entity.cache.size", entityCache, cache -> cache.stats(region).size)
+                    .tags(tags).description("Entries held by the second-level cache region").register(registry);
+            Gauge.builder("library.entity.cache.hit.ratio", entityCache, cache -> cache.stats(region).hitRatio)
+                    .tags(tags).description("Share of second-level cache lookups served from the cache").register(registry);
+        }
+    }
+
+    /**
+     * Fetches all hits of {@code query}, up to {@code library.search.max-size}, recording backend and hydration time.
+     * Reaching the maximum counts as a truncation, reported in the response.
+     */
+    public <H> List<H> fetchAllHits(String queryType, SearchQueryOptionsStep<?, H, ?, ?, ?> query) {
+        List<H> hits = fetchHits(queryType, query, null, maxSize);
+        if (hits.size() >= maxSize) {
+            guard.truncated(queryType);
+            request.truncated = true;
+        }
+        return hits;
+    }
+
+    /**
+     * Fetches the top {@code limit} hits of {@code query}, recording backend and hydration time.
+     */
+    public <H> List<H> fetchHits(String queryType, SearchQueryOptionsStep<?, H, ?, ?, ?> query, Integer limit) {
+        return fetchHits(queryType, query, null, limit);
+    }
+
+    /**
+     * Fetches {@code limit} hits of {@code query} starting at {@code offset}, recording backend and hydration time.
+     */
+    public <H> List<H> fetchHits(String queryType, SearchQueryOptionsStep<?, H, ?, ?, ?> query, Integer offset,
+                                 Integer limit) {
+        return fetch(queryType, query, offset, limit).hits();
+    }
+
+    /**
+     * Fetches {@code limit} hits of {@code query} starting at {@code offset}, recording backend and hydration time.
+     * The result also gives access to aggregations.
+     * <p>
+     * The query goes through the {@link QueryGuard}: it may be shed while the backend is slow, and runs with the
+     * timeout of its query type.
+     */
+    public <H> SearchResult<H> fetch(String queryType, SearchQueryOptionsStep<?, H, ?, ?, ?> query, Integer offset,
+                                     Integer limit) {
+        request.queryType = queryType;
+        guard.admit(queryType);
+        long start = System.nanoTime();
+        SearchResult<H> result;
+        try {
+            result = guard.limitTime(queryType, query).fetch(offset, limit);
+        } catch (SearchTimeoutException e) {
+            throw guard.timedOut(queryType, System.nanoTime() - start);
+        }
+        long elapsed = System.nanoTime() - start;
+        guard.record(result.took().toNanos());
+        if (result.timedOut()) {
+            guard.truncated(queryType);
+            request.truncated = true;
+        }
+        recordSearch(request, result.took(), elapsed);
+        return result;
+    }
+
+    /**
+     * Records a search run outside of Hibernate Search: its {@code took} time and the time it took overall.
+     */
+    void recordSearch(MeteredRequest metered, Duration took, long elapsedNanos) {
+        Tags tags = tags(metered);
+        timer("library.search.took", "Query execution time reported by Elasticsearch", tags)
+                .record(took);
+        timer("library.search.hydration", "Fetch time beyond Elasticsearch execution: transport and entity loading", tags)
+                .record(Math.max(0, elapsedNanos - took.toNanos()), TimeUnit.NANOSECONDS);
+    }
+
+    void recordRequest(MeteredRequest metered, long serializedBytes) {
+        if (metered.recorded || metered.endpoint == null) {
+            return;
+        }
+        metered.recorded = true;
+        Tags tags = tags(metered);
+        timer("library.request", "Total request latency, including serialization", tags)
+                .record(System.nanoTime() - metered.startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("library.response.size")
+                .description("Serialized response size")
+                .baseUnit("bytes")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(serializedBytes);
+    }
+
+    private Tags tags(MeteredRequest metered) {
+        return Tags.of("endpoint", metered.endpoint, "query", metered.queryType);
+    }
+
+    private Timer timer(String name, String description, Tags tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,96 @@
+package org.acme;
+
+import javax.inject.Inject;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+
+/**
+ * Times each library request from the moment it is matched until its response has been serialized,
+ * and measures the serialized size. A response holding partial results gets a {@value #TRUNCATED_HEADER} header.
+ */
+@Provider
+public class LibraryMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    static final String TRUNCATED_HEADER = "X-Result-Truncated";
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    @Inject
+    MeteredRequest request;
+
+    @Inject
+    LibraryMetrics metrics;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Method method = resourceInfo.getResourceMethod();
+        if (method == null || method.getDeclaringClass() != LibraryResource.class) {
+            return;
+        }
+        Path path = method.getAnnotation(Path.class);
+        request.endpoint = requestContext.getMethod() + " " + (path == null ? "" : path.value());
+        request.startNanos = System.nanoTime();
+        requestContext.setProperty(MeteredRequest.PROPERTY, request.instance());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        MeteredRequest metered = (MeteredRequest) requestContext.getProperty(MeteredRequest.PROPERTY);
+        if (metered != null && metered.truncated) {
+            responseContext.getHeaders().putSingle(TRUNCATED_HEADER, "true");
+        }
+        if (metered != null && !responseContext.hasEntity()) {
+            metrics.recordRequest(metered, 0);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        MeteredRequest metered = (MeteredRequest) context.getProperty(MeteredRequest.PROPERTY);
+        if (metered == null) {
+            context.proceed();
+            return;
+        }
+        CountingOutputStream counting = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(counting);
+        try {
+            context.proceed();
+        } finally {
+            metrics.recordRequest(metered, counting.count);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -1,31 +1,62 @@
 package org.acme;
 
 
-import io.quarkus.runtime.StartupEvent;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.quarkus.hibernate.orm.panache.Panache;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+import org.hibernate.search.backend.elasticsearch.ElasticsearchExtension;
+import org.hibernate.search.engine.search.aggregation.AggregationKey;
+import org.hibernate.search.engine.search.predicate.dsl.BooleanPredicateClausesStep;
+import org.hibernate.search.engine.search.predicate.dsl.PredicateFinalStep;
+import org.hibernate.search.engine.search.predicate.dsl.SearchPredicateFactory;
 import org.hibernate.search.engine.search.query.SearchResult;
 import org.hibernate.search.mapper.orm.session.SearchSession;
 import org.jboss.resteasy.annotations.jaxrs.FormParam;
 import org.jboss.resteasy.annotations.jaxrs.PathParam;
 import org.jboss.resteasy.annotations.jaxrs.QueryParam;
 
-import javax.enterprise.event.Observes;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.transaction.Transactional;
 import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.Normalizer;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.regex.Pattern;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_FORM_URLENCODED;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 
 @Consumes(APPLICATION_FORM_URLENCODED)
 @Path("/library")
 @Tag(name="Library Resource",description = "Library REST APIs")
 public class LibraryResource {
 
+    private static final Pattern WILDCARDS = Pattern.compile("[*?]+");
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
     @PUT
     @Path("book")
     @Transactional
@@ -44,16 +75,21 @@ public class LibraryResource {
                     description = "Author Id",
                     required = true
             )
-            @FormParam Long authorId) {
-        Author author = Author.findById(authorId);
-        if (author != null) {
+            @FormParam Long authorId,
+            @Parameter(
+                    description = "Wait until the change is searchable before responding",
+                    required = false
+            )
+            @QueryParam boolean refresh) {
+        readYourWrites(refresh);
+        // don't load the author: that would fetch its whole bibliography
+        if (Author.count("id", authorId) > 0) {
             Book book = new Book();
             book.title = title;
-            book.author = author;
+            book.author = Panache.getEntityManager().getReference(Author.class, authorId);
             book.persist();
-
-            author.books.add(book);
-            author.persist();
+            entityCache.evictBooksOf(authorId);
+            changes.fire(LibraryChange.upserted(Book.class, book.id));
         }
     }
 
@@ -76,11 +112,18 @@ public class LibraryResource {
                     description = "Author Last name",
                     required = true
             )
-            @FormParam String lastName) {
+            @FormParam String lastName,
+            @Parameter(
+                    description = "Wait until the change is searchable before responding",
+                    required = false
+            )
+            @QueryParam boolean refresh) {
+        readYourWrites(refresh);
         Author author = new Author();
         author.firstName = firstName;
         author.lastName = lastName;
         author.persist();
+        changes.fire(LibraryChange.upserted(Author.class, author.id));
     }
 
     @POST
@@ -106,12 +149,19 @@ public class LibraryResource {
                      description = "Author Last name",
                      required = true
              )
-             @FormParam String lastName) {
+             @FormParam String lastName,
+             @Parameter(
+                     description = "Wait until the change is searchable before responding",
+                     required = false
+             )
+             @QueryParam boolean refresh) {
+        readYourWrites(refresh);
         Author author = Author.findById(id);
         if (author != null) {
             author.firstName = firstName;
             author.lastName = lastName;
             author.persist();
+            changes.fire(LibraryChange.upserted(Author.class, author.id));
         }
     }
 
@@ -128,11 +178,18 @@ public class LibraryResource {
                     description = "author id",
                     required = true
             )
-            @PathParam Long id) {
+            @PathParam Long id,
+            @Parameter(
+                    description = "Wait until the change is searchable before responding",
+                    required = false
+            )
+            @QueryParam boolean refresh) {
+        readYourWrites(refresh);
         Book book = Book.findById(id);
         if (book != null) {
-            book.author.books.remove(book);
             book.delete();
+            entityCache.evictBooksOf(book.getAuthorId());
+            changes.fire(LibraryChange.deleted(Book.class, book.id));
         }
     }
 
@@ -149,47 +206,378 @@ public class LibraryResource {
                     description = "Author id",
                     required = true
             )
-            @PathParam Long id) {
+            @PathParam Long id,
+            @Parameter(
+                    description = "Wait until the change is searchable before responding",
+                    required = false
+            )
+            @QueryParam boolean refresh) {
+        readYourWrites(refresh);
         Author author = Author.findById(id);
         if (author != null) {
             author.delete();
+            for (Book book : author.books) {
+                changes.fire(LibraryChange.deleted(Book.class, book.id));
+            }
+            changes.fire(LibraryChange.deleted(Author.class, author.id));
         }
     }
 
+    @POST
+    @Path("authors/bulk")
+    @Consumes({APPLICATION_JSON, BulkImporter.TEXT_CSV})
+    @Produces(APPLICATION_JSON)
+    @Operation(
+            operationId = "importAuthors" ,
+            summary = "Bulk import Authors",
+            description = "Insert many Authors from a JSON array of {firstName, lastName} or a CSV upload with the columns firstName,lastName, and report rejected rows"
+    )
+    public BulkImportResult importAuthors(
+            @HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream body) throws IOException {
+        return bulkImporter.importAuthors(body, contentType);
+    }
+
+    @POST
+    @Path("books/bulk")
+    @Consumes({APPLICATION_JSON, BulkImporter.TEXT_CSV})
+    @Produces(APPLICATION_JSON)
+    @Operation(
+            operationId = "importBooks" ,
+            summary = "Bulk import Books",
+            description = "Insert many Books from a JSON array of {title, authorId} or a CSV upload with the columns title,authorId, and report rejected rows such as unknown authors"
+    )
+    public BulkImportResult importBooks(
+            @HeaderParam(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream body) throws IOException {
+        return bulkImporter.importBooks(body, contentType);
+    }
+
     @Inject
     SearchSession searchSession;
 
-    @Transactional
-    void onStart(@Observes StartupEvent ev) throws InterruptedException {
-        // only reindex if we imported some content
-        if (Book.count() > 0) {
-            searchSession.massIndexer()
-                    .startAndWait();
+    @Inject
+    BulkImporter bulkImporter;
+
+    @Inject
+    SearchResultCache resultCache;
+
+    @Inject
+    Event<LibraryChange> changes;
+
+    @Inject
+    SearchStreamer searchStreamer;
+
+    @Inject
+    LibraryMetrics metrics;
+
+    @Inject
+    Suggester suggester;
+
+    @Inject
+    BlueGreenReindexer blueGreenReindexer;
+
+    @Inject
+    AsyncSearcher asyncSearcher;
+
+    @Inject
+    EntityCache entityCache;
+
+    @Inject
+    IndexingOutbox indexingOutbox;
+
+    @Inject
+    QueryGuard guard;
+
+    @Inject
+    UnifiedSearcher unifiedSearcher;
+
+    @Inject
+    IndexSettingsManager indexSettings;
+
+    @Inject
+    ChangeCapture changeCapture;
+
+    @ConfigProperty(name = "library.search.default-size", defaultValue = "100")
+    int defaultSize;
+
+    @ConfigProperty(name = "library.search.max-size", defaultValue = "10000")
+    int maxSize;
+
+    @ConfigProperty(name = "library.search.max-book-authors", defaultValue = "65536")
+    int maxBookAuthors;
+
+    /**
+     * Indexing is asynchronous by default; a caller that needs to read its own write right away asks for it explicitly.
+     */
+    private void readYourWrites(boolean refresh) {
+        if (refresh) {
+            indexingOutbox.readYourWrites();
+        }
+    }
+
+    /**
+     * Number of top hits to fetch: the requested size, or the configured default, capped to the configured maximum.
+     */
+    private int topK(Optional<Integer> size) {
+        int requested = size.orElse(defaultSize);
+        if (requested <= 0) {
+            throw new BadRequestException("size must be positive");
+        }
+        return Math.min(requested, maxSize);
+    }
+
+    /**
+     * A blank prefix suggests nothing, any other goes through the pattern checks.
+     */
+    private void checkPrefix(String prefix) {
+        if (prefix != null && !prefix.trim().isEmpty()) {
+            guard.checkPattern("suggest", prefix);
+        }
+    }
+
+    private List<Long> requireIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            throw new BadRequestException("at least one id is required");
+        }
+        if (ids.size() > maxSize) {
+            throw new BadRequestException("at most " + maxSize + " ids can be requested at once");
+        }
+        return ids;
+    }
+
+    /**
+     * Ids of the authors of books whose title matches the pattern, aggregated on the book index page by page,
+     * up to {@code library.search.max-book-authors}. Authors don't embed their books, so that a book change never
+     * reindexes its whole author.
+     * <p>
+     * The pattern is matched against the title alone: an author matches when the whole pattern matches its name or
+     * the title of one of its books, so required ({@code +}) terms can't be split between the name and a title.
+     */
+    private Set<Long> authorsOfBooksMatching(String pattern) {
+        AggregationKey<JsonObject> authorIds = AggregationKey.of(BookAuthorIds.AGGREGATION);
+        Set<Long> ids = new LinkedHashSet<>();
+        JsonElement afterKey = null;
+        do {
+            JsonObject page = BookAuthorIds.page(afterKey);
+            afterKey = BookAuthorIds.collect(metrics.fetch("simpleQueryString", searchSession.search(Book.class)
+                    .extension(ElasticsearchExtension.get())
+                    .where(f -> f.simpleQueryString()
+                            .fields("title").matching(pattern))
+                    .aggregation(authorIds, f -> f.fromJson(page)), null, 0)
+                    .aggregation(authorIds), ids, maxBookAuthors);
+        } while (afterKey != null);
+        if (ids.size() == maxBookAuthors) {
+            guard.truncated("bookAuthors");
+        }
+        return ids;
+    }
+
+    private static PredicateFinalStep authorMatching(SearchPredicateFactory f, String pattern, Set<Long> bookAuthors) {
+        BooleanPredicateClausesStep<?> matching = f.bool()
+                .should(f.simpleQueryString()
+                        .fields("firstName", "lastName").matching(pattern));
+        if (!bookAuthors.isEmpty()) {
+            matching.should(f.id().matchingAny(bookAuthors));
+        }
+        return matching;
+    }
+
+    /**
+     * Splits a wildcard pattern into its literal parts, or returns an empty list when a part has a word shorter
+     * than a trigram and so cannot be looked up in {@code title_ngram}.
+     */
+    static List<String> wildcardSegments(String pattern) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : WILDCARDS.split(pattern == null ? "" : pattern)) {
+            for (String word : NON_WORD.split(segment)) {
+                if (!word.isEmpty() && word.length() < 3) {
+                    return new ArrayList<>();
+                }
+            }
+            if (!NON_WORD.matcher(segment).replaceAll("").isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * The wildcard pattern as a regular expression over folded titles, matching whole words as the wildcard query
+     * on the title terms does: {@code *} is any run of letters within a word and {@code ?} exactly one.
+     * The trigram lookup finds titles containing every segment, in any order and anywhere in a word, so its hits
+     * are checked against this expression.
+     */
+    static Pattern wildcardRegex(String pattern) {
+        StringBuilder regex = new StringBuilder("(?<!\\S)");
+        int literal = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal < i) {
+                    regex.append(Pattern.quote(fold(pattern.substring(literal, i))));
+                }
+                regex.append(c == '*' ? "\\S*" : "\\S");
+                literal = i + 1;
+            }
+        }
+        if (literal < pattern.length()) {
+            regex.append(Pattern.quote(fold(pattern.substring(literal))));
+        }
+        return Pattern.compile(regex.append("(?!\\S)").toString());
+    }
+
+    /**
+     * Lowercases and removes accents, as the title analyzers do.
+     */
+    static String fold(String text) {
+        return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Matches titles containing every segment: the trigrams of a segment must appear next to each other.
+     */
+    private static PredicateFinalStep containsAll(SearchPredicateFactory f, List<String> segments) {
+        BooleanPredicateClausesStep<?> bool = f.bool();
+        for (String segment : segments) {
+            bool.must(f.phrase().field("title_ngram").matching(segment));
         }
+        return bool;
+    }
+
+    @POST
+    @Path("index/rebuild")
+    @Produces(APPLICATION_JSON)
+    @Operation(
+            operationId = "rebuildIndexes" ,
+            summary = "Rebuild the indexes without downtime",
+            description = "Build new versioned indexes in the background while searches keep reading the current ones, then swap the read aliases. Fails with 409 if a rebuild is already running"
+    )
+    public Response rebuildIndexes() {
+        return Response.accepted(blueGreenReindexer.rebuild()).build();
+    }
+
+    @GET
+    @Path("index/rebuild")
+    @Operation(
+            operationId = "rebuildIndexesStatus" ,
+            summary = "Index rebuild status",
+            description = "Get the progress of the last index rebuild"
+    )
+    public BlueGreenReindexer.RebuildStatus rebuildIndexesStatus() {
+        return blueGreenReindexer.status();
+    }
+
+    @GET
+    @Path("index/outbox")
+    @ReadOnly
+    @Operation(
+            operationId = "indexingOutboxStatus" ,
+            summary = "Indexing outbox status",
+            description = "Get the number and age of changes not confirmed in Elasticsearch yet, and what the outbox processor did since startup"
+    )
+    public IndexingOutbox.OutboxStatus indexingOutboxStatus() {
+        return indexingOutbox.status();
+    }
+
+    @GET
+    @Path("index/cdc")
+    @ReadOnly
+    @Operation(
+            operationId = "changeCaptureStatus" ,
+            summary = "Change capture status",
+            description = "Get the change log position indexed so far, the number and age of the row changes still to index, and what the change capture did since startup"
+    )
+    public ChangeCapture.CaptureStatus changeCaptureStatus() {
+        return changeCapture.status();
+    }
+
+    @GET
+    @Path("index/settings")
+    @Operation(
+            operationId = "indexSettings" ,
+            summary = "Index settings",
+            description = "Get the index searched for each entity type, with its shard count, replica count and refresh interval"
+    )
+    public List<IndexSettingsManager.IndexSettings> indexSettings() {
+        return indexSettings.settings();
+    }
+
+    @GET
+    @Path("cache/stats")
+    @Operation(
+            operationId = "searchCacheStats" ,
+            summary = "Search result cache statistics",
+            description = "Get hit, miss, eviction and invalidation counts and the current size of the search result cache"
+    )
+    public SearchResultCache.Stats searchCacheStats() {
+        return resultCache.stats();
+    }
+
+    @GET
+    @Path("cache/entity/stats")
+    @Operation(
+            operationId = "entityCacheStats" ,
+            summary = "Entity cache statistics",
+            description = "Get hit, miss and put counts, hit ratio and size of the second-level cache regions of authors, books and author bibliographies"
+    )
+    public List<EntityCache.RegionStats> entityCacheStats() {
+        return entityCache.stats();
     }
 
     @GET
     @Path("authors")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchAuthors" ,
             summary = "Find all Authors",
             description = "Get all the information of all authors in database"
     )
     public List<Author> searchAuthors() {
-        return searchSession.search(Author.class)
+        return resultCache.get(Author.class, "matchAll|lastName_sort,firstName_sort",
+                () -> metrics.fetchAllHits("matchAll", searchSession.search(Author.class)
+                        .where(f -> f.matchAll())
+                        .sort(f -> f.field("lastName_sort").then().field("firstName_sort"))));
+    }
+
+    @GET
+    @Path("authors/view")
+    @Operation(
+            operationId = "searchAuthorsView" ,
+            summary = "Find all Authors as lightweight views",
+            description = "Get id, first and last name of all authors straight from the index, without loading them from the database"
+    )
+    public List<AuthorView> searchAuthorsView() {
+        return metrics.fetchAllHits("matchAll", searchSession.search(Author.class)
+                .select(AuthorView::projection)
                 .where(f -> f.matchAll())
-                .sort(f -> f.field("lastName_sort").then().field("firstName_sort"))
-                .fetchAllHits();
+                .sort(f -> f.field("lastName_sort").then().field("firstName_sort")));
     }
 
+    @GET
+    @Path("authors/stream")
+    @Produces(SearchStreamer.APPLICATION_NDJSON)
+    @Operation(
+            operationId = "streamAuthors" ,
+            summary = "Stream all Authors",
+            description = "Stream all authors in database as newline-delimited JSON, one chunk at a time"
+    )
+    public StreamingOutput streamAuthors() {
+        return output -> searchStreamer.write("matchAll", Author.class,
+                f -> f.matchAll(),
+                f -> f.field("lastName_sort").then().field("firstName_sort"),
+                output);
+    }
+
+    @Deprecated
     @GET
     @Path("authors/time")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchAuthorsTime" ,
             summary = "Time to Find all Authors",
-            description = "Get Time to find all authors in database"
+            description = "Get Time to find all authors in database. Deprecated: only reports the Elasticsearch took time, see the library_* histograms on /q/metrics instead"
     )
     public Duration searchAuthorsTime() {
         SearchResult<Author> result= searchSession.search(Author.class)
@@ -202,7 +590,7 @@ public class LibraryResource {
 
     @GET
     @Path("author/{id}")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchAuthors" ,
             summary = "Find Author by id",
@@ -214,17 +602,36 @@ public class LibraryResource {
                     required = true
             )
             @org.jboss.resteasy.annotations.jaxrs.PathParam long id) {
-        return searchSession.search(Author.class)
-                .where(f -> f.id().matching(id)).fetchAllHits();
+        return metrics.fetchAllHits("id", searchSession.search(Author.class)
+                .where(f -> f.id().matching(id)));
+    }
+
+    @GET
+    @Path("authors/batch")
+    @ReadOnly
+    @Operation(
+            operationId = "searchAuthorsByIds" ,
+            summary = "Find Authors by ids",
+            description = "Get several authors in one request, in the order of the given ids, along with the ids that were not found"
+    )
+    public MultiGetResult<Author> searchAuthorsByIds(
+            @Parameter(
+                    description = "Author ids, repeated: id=1&id=2",
+                    required = true
+            )
+            @QueryParam List<Long> id) {
+        List<Long> ids = requireIds(id);
+        return MultiGetResult.inRequestedOrder(ids, metrics.fetchAllHits("id", searchSession.search(Author.class)
+                .where(f -> f.id().matchingAny(ids))), author -> author.id);
     }
 
     @GET
     @Path("author/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchAuthors" ,
             summary = "Find Author by First/Last Name/Book Tile",
-            description = "Get Author by first/last name, where even if first 3 letters match, it will be accepted, or partial book title"
+            description = "Get Author by first/last name, where even if first 3 letters match, it will be accepted, or partial book title. The whole pattern must match either the name or the title of one book: terms required with + cannot be split between the two"
     )
     public List<Author> searchAuthors(
             @Parameter(
@@ -237,22 +644,118 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Author.class)
-                .where(f ->
-                                f.simpleQueryString()
-                                        .fields("firstName", "lastName", "books.title").matching(pattern)
-                )
-                .sort(f -> f.field("lastName_sort").then().field("firstName_sort"))
-                .fetchAllHits();
+        guard.checkPattern("simpleQueryString", pattern);
+        int limit = topK(size);
+        return resultCache.get(Author.class,
+                "simpleQueryString|" + SearchResultCache.normalize(pattern) + "|lastName_sort,firstName_sort|" + limit,
+                () -> {
+                    Set<Long> bookAuthors = authorsOfBooksMatching(pattern);
+                    return metrics.fetchHits("simpleQueryString", searchSession.search(Author.class)
+                            .where(f -> authorMatching(f, pattern, bookAuthors))
+                            .sort(f -> f.field("lastName_sort").then().field("firstName_sort")), limit);
+                });
+    }
+
+    @GET
+    @Path("author/search/view")
+    @Operation(
+            operationId = "searchAuthorsView" ,
+            summary = "Find Author views by First/Last Name/Book Tile",
+            description = "Get id, first and last name of matching authors straight from the index, without loading them from the database. The whole pattern must match either the name or the title of one book: terms required with + cannot be split between the two"
+    )
+    public List<AuthorView> searchAuthorsView(
+            @Parameter(
+                    description = "First/Last Name/Book Tile",
+                    required = true
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
+        Set<Long> bookAuthors = authorsOfBooksMatching(pattern);
+        return metrics.fetchHits("simpleQueryString", searchSession.search(Author.class)
+                .select(AuthorView::projection)
+                .where(f -> authorMatching(f, pattern, bookAuthors))
+                .sort(f -> f.field("lastName_sort").then().field("firstName_sort")), topK(size));
     }
 
+    @GET
+    @Path("author/search/async")
+    @Operation(
+            operationId = "searchAuthorsAsync" ,
+            summary = "Find Author views by First/Last Name/Book Tile without blocking",
+            description = "Same as author/search/view, but the request thread is released while Elasticsearch runs the queries"
+    )
+    public CompletionStage<List<AuthorView>> searchAuthorsAsync(
+            @Parameter(
+                    description = "First/Last Name/Book Tile",
+                    required = true
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
+        return asyncSearcher.searchAuthors(pattern, topK(size), maxBookAuthors);
+    }
+
+    @GET
+    @Path("author/search/stream")
+    @Produces(SearchStreamer.APPLICATION_NDJSON)
+    @Operation(
+            operationId = "streamAuthorsSearch" ,
+            summary = "Stream Authors by First/Last Name/Book Tile",
+            description = "Stream Authors matching first/last name or partial book title as newline-delimited JSON. The whole pattern must match either the name or the title of one book: terms required with + cannot be split between the two"
+    )
+    public StreamingOutput streamAuthors(
+            @Parameter(
+                    description = "First/Last Name/Book Tile",
+                    required = true
+            )
+            @QueryParam String pattern) {
+        guard.checkPattern("simpleQueryString", pattern);
+        Set<Long> bookAuthors = authorsOfBooksMatching(pattern);
+        return output -> searchStreamer.write("simpleQueryString", Author.class,
+                f -> authorMatching(f, pattern, bookAuthors),
+                f -> f.field("lastName_sort").then().field("firstName_sort"),
+                output);
+    }
+
+    @GET
+    @Path("author/suggest")
+    @Operation(
+            operationId = "suggestAuthors" ,
+            summary = "Suggest Authors while typing",
+            description = "Get author names starting with the typed prefix, on first or last name, from the completion suggester"
+    )
+    public List<Suggestion> suggestAuthors(
+            @Parameter(
+                    description = "Typed prefix",
+                    required = true
+            )
+            @QueryParam String prefix,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        checkPrefix(prefix);
+        return suggester.suggestAuthors(prefix, size);
+    }
+
+    @Deprecated
     @GET
     @Path("author/time/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchAuthorsTime" ,
             summary = "Find time to find Author by First/Last Name/Book Tile",
-            description = "Get time to find Author by first/last name, where even if first 3 letters match, it will be accepted, or partial book title"
+            description = "Get time to find Author by first/last name, where even if first 3 letters match, it will be accepted, or partial book title. Deprecated: only reports the Elasticsearch took time, see the library_* histograms on /q/metrics instead"
     )
     public Duration searchAuthorsTime(@Parameter(
             description = "First/Last Name/Book Tile",
@@ -264,38 +767,67 @@ public class LibraryResource {
                   required = false
           )
           @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
+        Set<Long> bookAuthors = authorsOfBooksMatching(pattern);
         SearchResult<Author> result= searchSession.search(Author.class)
-                .where(f ->
-                                f.simpleQueryString()
-                                        .fields("firstName", "lastName","books.title").matching(pattern)
-                )
+                .where(f -> authorMatching(f, pattern, bookAuthors))
                 .sort(f -> f.field("lastName_sort").then().field("firstName_sort"))
-                .fetchAll();
+                .fetch(topK(size));
         return result.took();
     }
 
     @GET
     @Path("books")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBook" ,
             summary = "Get all Books",
             description = "Get all Books in the databsse"
     )
     public List<Book> searchBook() {
-        return searchSession.search(Book.class)
+        return resultCache.get(Book.class, "matchAll|title_sort",
+                () -> metrics.fetchAllHits("matchAll", searchSession.search(Book.class)
+                        .where(f -> f.matchAll())
+                        .sort(f->f.field("title_sort"))));
+    }
+
+    @GET
+    @Path("books/view")
+    @Operation(
+            operationId = "searchBookView" ,
+            summary = "Get all Books as lightweight views",
+            description = "Get id and title of all Books straight from the index, without loading them from the database"
+    )
+    public List<BookView> searchBookView() {
+        return metrics.fetchAllHits("matchAll", searchSession.search(Book.class)
+                .select(BookView::projection)
                 .where(f -> f.matchAll())
-                .sort(f->f.field("title_sort"))
-                .fetchAllHits();
+                .sort(f->f.field("title_sort")));
+    }
+
+    @GET
+    @Path("books/stream")
+    @Produces(SearchStreamer.APPLICATION_NDJSON)
+    @Operation(
+            operationId = "streamBooks" ,
+            summary = "Stream all Books",
+            description = "Stream all Books in the database as newline-delimited JSON, one chunk at a time"
+    )
+    public StreamingOutput streamBooks() {
+        return output -> searchStreamer.write("matchAll", Book.class,
+                f -> f.matchAll(),
+                f -> f.field("title_sort"),
+                output);
     }
 
+    @Deprecated
     @GET
     @Path("books/time")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookTime" ,
             summary = "time to get all Books",
-            description = "Get time to fetch all Books in the databsse"
+            description = "Get time to fetch all Books in the databsse. Deprecated: only reports the Elasticsearch took time, see the library_* histograms on /q/metrics instead"
     )
     public Duration searchBookTime() {
         SearchResult<Book> result= searchSession.search(Book.class)
@@ -307,11 +839,11 @@ public class LibraryResource {
 
     @GET
     @Path("books/page")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookPage" ,
             summary = "Get all Books in a page",
-            description = "Get all Books in page by defining page and no of books in a page"
+            description = "Get all Books in page by defining page and no of books in a page. Prefer books/keyset for deep pages"
     )
     public List<Book> searchBookPage(@Parameter(
             description = "page no",
@@ -323,15 +855,55 @@ public class LibraryResource {
                      required = true
              )
              @QueryParam int limit) {
-        return searchSession.search(Book.class)
+        return resultCache.get(Book.class, "matchAll|title_sort|" + page + "|" + limit,
+                () -> metrics.fetchHits("matchAll", searchSession.search(Book.class)
+                        .where(f -> f.matchAll())
+                        .sort(f->f.field("title_sort")), limit*(page-1), limit));
+    }
+
+    @GET
+    @Path("books/keyset")
+    @ReadOnly
+    @Operation(
+            operationId = "searchBookKeyset" ,
+            summary = "Get all Books page by page using a cursor",
+            description = "Get Books sorted by title, one page at a time; pass the returned cursor as 'after' to get the next page. Unlike books/page, cost does not grow with the page depth"
+    )
+    public KeysetPage<Book> searchBookKeyset(
+            @Parameter(
+                    description = "cursor returned by the previous page, absent for the first page",
+                    required = false
+            )
+            @QueryParam String after,
+            @Parameter(
+                    description = "books in a page",
+                    required = true
+            )
+            @QueryParam int limit) {
+        JsonArray searchAfter = after == null ? null : KeysetPage.decodeCursor(after);
+        int pageSize = topK(Optional.of(limit));
+        List<Book> books = new ArrayList<>();
+        JsonArray last = null;
+        for (List<?> hit : metrics.fetchHits("matchAll", searchSession.search(Book.class)
+                .extension(ElasticsearchExtension.get())
+                .select(f -> f.composite(f.entity(), f.jsonHit()))
                 .where(f -> f.matchAll())
-                .sort(f->f.field("title_sort"))
-                .fetchHits(limit*(page-1),limit);
+                .sort(f -> f.field("title_sort").then().field("id_sort"))
+                .requestTransformer(context -> {
+                    if (searchAfter != null) {
+                        context.body().add("search_after", searchAfter);
+                    }
+                }), pageSize)) {
+            books.add((Book) hit.get(0));
+            last = ((JsonObject) hit.get(1)).getAsJsonArray("sort");
+        }
+        String next = books.size() < pageSize || last == null ? null : KeysetPage.encodeCursor(last);
+        return new KeysetPage<>(books, next);
     }
 
     @GET
     @Path("book/{id}")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookId" ,
             summary = "Get Book by id",
@@ -343,14 +915,32 @@ public class LibraryResource {
                     required = true
             )
             @PathParam long id) {
-        return searchSession.search(Book.class)
-                .where(f -> f.id().matching(id))
-                .fetchAllHits();
+        return metrics.fetchAllHits("id", searchSession.search(Book.class)
+                .where(f -> f.id().matching(id)));
+    }
+
+    @GET
+    @Path("books/batch")
+    @ReadOnly
+    @Operation(
+            operationId = "searchBooksByIds" ,
+            summary = "Get Books by ids",
+            description = "Get several books in one request, in the order of the given ids, along with the ids that were not found"
+    )
+    public MultiGetResult<Book> searchBooksByIds(
+            @Parameter(
+                    description = "Book ids, repeated: id=1&id=2",
+                    required = true
+            )
+            @QueryParam List<Long> id) {
+        List<Long> ids = requireIds(id);
+        return MultiGetResult.inRequestedOrder(ids, metrics.fetchAllHits("id", searchSession.search(Book.class)
+                .where(f -> f.id().matchingAny(ids))), book -> book.id);
     }
 
     @GET
     @Path("book/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBook" ,
             summary = "Search Books by Text-Search",
@@ -367,22 +957,119 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Book.class)
+        guard.checkPattern("simpleQueryString", pattern);
+        int limit = topK(size);
+        return resultCache.get(Book.class, "simpleQueryString|" + SearchResultCache.normalize(pattern) + "|score|" + limit,
+                () -> metrics.fetchHits("simpleQueryString", searchSession.search(Book.class)
+                        .where(f ->
+                                        f.simpleQueryString()
+                                                .fields("title").matching(pattern)
+                        )
+                        .sort(f->f.score().desc()), limit));
+    }
+
+    @GET
+    @Path("book/search/view")
+    @Operation(
+            operationId = "searchBookView" ,
+            summary = "Search Book views by Text-Search",
+            description = "Perform text-search on book.title and get id and title of relevant books straight from the index"
+    )
+    public List<BookView> searchBookView(
+            @Parameter(
+                    description = "Pattern",
+                    required = true
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
+        return metrics.fetchHits("simpleQueryString", searchSession.search(Book.class)
+                .select(BookView::projection)
                 .where(f ->
                                 f.simpleQueryString()
                                         .fields("title").matching(pattern)
                 )
-                .sort(f->f.score().desc())
-                .fetchAllHits();
+                .sort(f->f.score().desc()), topK(size));
     }
 
+    @GET
+    @Path("book/search/async")
+    @Operation(
+            operationId = "searchBookAsync" ,
+            summary = "Search Book views by Text-Search without blocking",
+            description = "Same as book/search/view, but the request thread is released while Elasticsearch runs the query"
+    )
+    public CompletionStage<List<BookView>> searchBookAsync(
+            @Parameter(
+                    description = "Pattern",
+                    required = true
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
+        return asyncSearcher.searchBooks(pattern, topK(size));
+    }
+
+    @GET
+    @Path("book/search/stream")
+    @Produces(SearchStreamer.APPLICATION_NDJSON)
+    @Operation(
+            operationId = "streamBooksSearch" ,
+            summary = "Stream Books by Text-Search",
+            description = "Perform text-search on book.title and stream relevant books as newline-delimited JSON"
+    )
+    public StreamingOutput streamBooks(
+            @Parameter(
+                    description = "Pattern",
+                    required = true
+            )
+            @QueryParam String pattern) {
+        guard.checkPattern("simpleQueryString", pattern);
+        return output -> searchStreamer.write("simpleQueryString", Book.class,
+                f -> f.simpleQueryString()
+                        .fields("title").matching(pattern),
+                f -> f.score().desc(),
+                output);
+    }
+
+    @GET
+    @Path("book/suggest")
+    @Operation(
+            operationId = "suggestBooks" ,
+            summary = "Suggest Books while typing",
+            description = "Get book titles with a word starting with the typed prefix, from the completion suggester"
+    )
+    public List<Suggestion> suggestBooks(
+            @Parameter(
+                    description = "Typed prefix",
+                    required = true
+            )
+            @QueryParam String prefix,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        checkPrefix(prefix);
+        return suggester.suggestBooks(prefix, size);
+    }
+
+    @Deprecated
     @GET
     @Path("book/time/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookTime" ,
             summary = "Time to Search Books by Text-Search",
-            description = "Time to Perform text-search on book.title to get relevant books "
+            description = "Time to Perform text-search on book.title to get relevant books. Deprecated: only reports the Elasticsearch took time, see the library_* histograms on /q/metrics instead"
     )
     public Duration searchBookTime(
             @Parameter(
@@ -395,23 +1082,24 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
+        guard.checkPattern("simpleQueryString", pattern);
         SearchResult<Book> result= searchSession.search(Book.class)
                 .where(f ->
                                 f.simpleQueryString()
                                         .fields("title").matching(pattern)
                 )
                 .sort(f->f.score().desc())
-                .fetchAll();
+                .fetch(topK(size));
         return result.took();
     }
 
     @GET
     @Path("book/wildcard/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookWildcard" ,
             summary = "Search Books by Text-Search with partial words",
-            description = "Perform text-search on book.title to get relevant books using wildcard words (similar to like in SQL) "
+            description = "Perform text-search on book.title to get relevant books using wildcard words (similar to like in SQL): * matches any letters and ? exactly one letter within a word, and the pattern must match whole title words, ignoring case and accents. Patterns whose literal parts are words of at least 3 letters are looked up in a trigram index and the candidates checked against the pattern, so a pattern may span several words; shorter ones fall back to a wildcard scan of the title terms"
     )
     public List<Book> searchBookWildcard(
             @Parameter(
@@ -424,18 +1112,37 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Book.class)
-                .where(f->
-                                f.wildcard()
-                                        .fields("title").matching(pattern)
-                )
-                .sort(f->f.score().desc())
-                .fetchAllHits();
+        List<String> segments = wildcardSegments(pattern);
+        if (segments.isEmpty()) {
+            guard.checkWildcard(pattern);
+            return metrics.fetchHits("wildcard", searchSession.search(Book.class)
+                    .where(f -> f.wildcard().fields("title").matching(pattern))
+                    .sort(f->f.score().desc()), topK(size));
+        }
+        guard.checkPattern("ngram", pattern);
+        int limit = topK(size);
+        Pattern regex = wildcardRegex(pattern);
+        List<Book> books = new ArrayList<>();
+        // trigram candidates are a superset of the matches: read them page by page until enough of them match
+        for (int offset = 0; books.size() < limit && offset + limit <= maxSize; offset += limit) {
+            List<Book> candidates = metrics.fetchHits("ngram", searchSession.search(Book.class)
+                    .where(f -> containsAll(f, segments))
+                    .sort(f->f.score().desc()), offset, limit);
+            for (Book book : candidates) {
+                if (books.size() < limit && regex.matcher(fold(book.title)).find()) {
+                    books.add(book);
+                }
+            }
+            if (candidates.size() < limit) {
+                break;
+            }
+        }
+        return books;
     }
 
     @GET
     @Path("book/phrase/slop/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookPhraseSlop" ,
             summary = "Search Books by phrase-Search with 2 permissible words within phrase",
@@ -452,18 +1159,18 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Book.class)
+        guard.checkPattern("phrase", pattern);
+        return metrics.fetchHits("phrase", searchSession.search(Book.class)
                 .where(f ->
                                 f.phrase()
                                         .fields("title").matching(pattern).slop(2)
                 )
-                .sort(f->f.score().desc())
-                .fetchAllHits();
+                .sort(f->f.score().desc()), topK(size));
     }
 
     @GET
     @Path("book/except/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookExcept" ,
             summary = "Search Books where these certain words dont exist",
@@ -480,18 +1187,18 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Book.class)
+        guard.checkPattern("except", pattern);
+        return metrics.fetchHits("except", searchSession.search(Book.class)
                 .where(f ->
                                 f.matchAll()
                                         .except( f.match().fields("title").matching(pattern))
                 )
-                .sort(f->f.score().desc())
-                .fetchAllHits();
+                .sort(f->f.score().desc()), topK(size));
     }
 
     @GET
     @Path("book/fuzzy/search")
-    @Transactional
+    @ReadOnly
     @Operation(
             operationId = "searchBookFuzzy" ,
             summary = "Search Books by phrase-Search with 1 permissible character change in a word",
@@ -508,12 +1215,115 @@ public class LibraryResource {
                     required = false
             )
             @QueryParam Optional<Integer> size) {
-        return searchSession.search(Book.class)
+        guard.checkFuzzy(pattern);
+        return metrics.fetchHits("fuzzy", searchSession.search(Book.class)
                 .where(f ->
                                 f.match().fields("title").matching(pattern).fuzzy(1,3)
                 )
-                .sort(f->f.score().desc())
-                .fetchAllHits();
+                .sort(f->f.score().desc()), topK(size));
+    }
+
+    @GET
+    @Path("search")
+    @Operation(
+            operationId = "searchLibrary" ,
+            summary = "Search Authors and Books together",
+            description = "Perform text-search on author names and book titles in one request, and get authors and books ranked together by relevance, with field boosts and phrase proximity rescoring of the top hits"
+    )
+    public List<LibraryHit> searchLibrary(
+            @Parameter(
+                    description = "Pattern",
+                    required = true
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "size",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size,
+            @Parameter(
+                    description = "Number of top hits rescored by phrase proximity, 0 to disable",
+                    required = false
+            )
+            @QueryParam Optional<Integer> rescore) {
+        guard.checkPattern("unified", pattern);
+        return unifiedSearcher.search(pattern, topK(size), rescore.map(window -> Math.min(window, maxSize)).orElse(null));
+    }
+
+    @GET
+    @Path("book/facets")
+    @Operation(
+            operationId = "bookFacets" ,
+            summary = "Count matching Books per author and per title word",
+            description = "Get the number of books matching a text-search, the authors with most matching books and the most frequent title words, computed in Elasticsearch without loading any book"
+    )
+    public BookFacets bookFacets(
+            @Parameter(
+                    description = "Pattern, all books if absent",
+                    required = false
+            )
+            @QueryParam String pattern,
+            @Parameter(
+                    description = "How to match the pattern: simpleQueryString (default), phrase or fuzzy",
+                    required = false
+            )
+            @QueryParam Optional<String> match,
+            @Parameter(
+                    description = "buckets per facet",
+                    required = false
+            )
+            @QueryParam Optional<Integer> size) {
+        int buckets = topK(Optional.of(size.orElse(10)));
+        if (pattern != null && !pattern.trim().isEmpty()) {
+            if ("fuzzy".equals(match.orElse(null))) {
+                guard.checkFuzzy(pattern);
+            } else {
+                guard.checkPattern("facets", pattern);
+            }
+        }
+        AggregationKey<Map<Long, Long>> byAuthor = AggregationKey.of("byAuthor");
+        AggregationKey<Map<String, Long>> byTitleTerm = AggregationKey.of("byTitleTerm");
+        SearchResult<Book> result = metrics.fetch("facets", searchSession.search(Book.class)
+                .where(f -> bookMatching(f, match.orElse("simpleQueryString"), pattern))
+                .aggregation(byAuthor, f -> f.terms().field("authorId", Long.class).maxTermCount(buckets))
+                .aggregation(byTitleTerm, f -> f.terms().field("title_terms", String.class).maxTermCount(buckets)),
+                null, 0);
+
+        BookFacets facets = new BookFacets();
+        facets.total = result.total().hitCount();
+        Map<Long, Long> authorCounts = result.aggregation(byAuthor);
+        Map<Long, AuthorView> authors = new HashMap<>();
+        if (!authorCounts.isEmpty()) {
+            for (AuthorView author : searchSession.search(Author.class)
+                    .select(AuthorView::projection)
+                    .where(f -> f.id().matchingAny(authorCounts.keySet()))
+                    .fetchHits(authorCounts.size())) {
+                authors.put(author.id, author);
+            }
+        }
+        authorCounts.forEach((id, count) -> {
+            AuthorView author = authors.get(id);
+            facets.authors.add(new BookFacets.AuthorBucket(id,
+                    author == null ? null : author.firstName, author == null ? null : author.lastName, count));
+        });
+        result.aggregation(byTitleTerm).forEach((term, count) -> facets.titleTerms.add(new BookFacets.TermBucket(term, count)));
+        return facets;
+    }
+
+    private static PredicateFinalStep bookMatching(SearchPredicateFactory f, String match, String pattern) {
+        if (pattern == null || pattern.trim().isEmpty()) {
+            return f.matchAll();
+        }
+        switch (match) {
+            case "simpleQueryString":
+                return f.simpleQueryString().fields("title").matching(pattern);
+            case "phrase":
+                return f.phrase().fields("title").matching(pattern).slop(2);
+            case "fuzzy":
+                return f.match().fields("title").matching(pattern).fuzzy(1, 3);
+            default:
+                throw new BadRequestException("Unknown match " + match + ", expected simpleQueryString, phrase or fuzzy");
+        }
     }
 
 }
@@ -0,0 +1,67 @@
+package org.acme;
+
+import org.hibernate.search.mapper.orm.massindexing.MassIndexingMonitor;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs mass indexing progress of one entity type: documents indexed, throughput and estimated time left.
+ */
+public class MassIndexingProgressMonitor implements MassIndexingMonitor {
+
+    private static final Logger LOG = Logger.getLogger(MassIndexingProgressMonitor.class);
+
+    private final String type;
+    private final long logInterval;
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong nextLog;
+
+    public MassIndexingProgressMonitor(String type, long logInterval) {
+        this.type = type;
+        this.logInterval = logInterval;
+        this.nextLog = new AtomicLong(logInterval);
+    }
+
+    @Override
+    public void addToTotalCount(long count) {
+        total.addAndGet(count);
+        LOG.infof("Reindexing %s: %d entities to index", type, total.get());
+    }
+
+    @Override
+    public void entitiesLoaded(long count) {
+    }
+
+    @Override
+    public void documentsBuilt(long count) {
+    }
+
+    @Override
+    public void documentsAdded(long count) {
+        long done = added.addAndGet(count);
+        long threshold = nextLog.get();
+        if (done >= threshold && nextLog.compareAndSet(threshold, done + logInterval)) {
+            double rate = documentsPerSecond(done);
+            long remaining = Math.max(0, total.get() - done);
+            LOG.infof("Reindexing %s: %d/%d documents, %.0f documents/s, ETA %ds",
+                    type, done, total.get(), rate, rate > 0 ? Math.round(remaining / rate) : -1);
+        }
+    }
+
+    @Override
+    public void indexingCompleted() {
+        long done = added.get();
+        LOG.infof("Reindexing %s completed: %d documents in %ds, %.0f documents/s",
+                type, done, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos), documentsPerSecond(done));
+    }
+
+    private double documentsPerSecond(long done) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? done / seconds : 0;
+    }
+}
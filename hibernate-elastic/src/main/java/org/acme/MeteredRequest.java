@@ -0,0 +1,35 @@
+package org.acme;
+
+import javax.enterprise.context.RequestScoped;
+
+/**
+ * What is known about the current request for metrics purposes: which endpoint it hit, which kind of query it ran
+ * and when it started.
+ */
+@RequestScoped
+public class MeteredRequest {
+
+    static final String NO_QUERY = "none";
+
+    /** Request property holding the {@link #instance()}, for the filters that run after the response resumes. */
+    static final String PROPERTY = MeteredRequest.class.getName();
+
+    String endpoint;
+
+    String queryType = NO_QUERY;
+
+    long startNanos;
+
+    boolean recorded;
+
+    /** Whether the response holds partial results: a search timed out or stopped at the maximum size. */
+    boolean truncated;
+
+    /**
+     * The instance behind the client proxy, still usable once the request context is no longer active,
+     * e.g. when an asynchronous response completes on an I/O thread.
+     */
+    MeteredRequest instance() {
+        return this;
+    }
+}
@@ -0,0 +1,44 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Outcome of a lookup by several ids: the hits in the requested order, and the ids nothing was found for.
+ */
+public class MultiGetResult<T> {
+
+    public List<T> hits;
+
+    public List<Long> missing;
+
+    public MultiGetResult(List<T> hits, List<Long> missing) {
+        this.hits = hits;
+        this.missing = missing;
+    }
+
+    /**
+     * Puts the hits back in the order of the requested ids, whatever order the search returned them in.
+     * An id requested twice yields its hit twice.
+     */
+    static <T> MultiGetResult<T> inRequestedOrder(List<Long> ids, List<T> hits, Function<T, Long> idOf) {
+        Map<Long, T> byId = new HashMap<>();
+        for (T hit : hits) {
+            byId.put(idOf.apply(hit), hit);
+        }
+        List<T> ordered = new ArrayList<>(ids.size());
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            T hit = byId.get(id);
+            if (hit == null) {
+                missing.add(id);
+            } else {
+                ordered.add(hit);
+            }
+        }
+        return new MultiGetResult<>(ordered, missing);
+    }
+}
@@ -0,0 +1,233 @@
+package org.acme;
+
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.engine.search.query.SearchFetchable;
+import org.hibernate.search.engine.search.query.dsl.SearchQueryOptionsStep;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps pathological searches from tying up Elasticsearch and the worker threads.
+ * <p>
+ * Patterns are checked for length and complexity before a query is built; every query runs with a timeout,
+ * configurable per query type, after which it either returns the hits found so far or fails; and expensive query
+ * types are shed with a 503 while a {@link LatencyBreaker} fed by every search sees the backend slowing down.
+ */
+@ApplicationScoped
+public class QueryGuard {
+
+    private static final Pattern WILDCARDS = Pattern.compile("[*?]");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Inject
+    Config config;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "library.guard.timeout", defaultValue = "PT2S")
+    Duration defaultTimeout;
+
+    @ConfigProperty(name = "library.guard.on-timeout", defaultValue = "truncate")
+    String defaultOnTimeout;
+
+    @ConfigProperty(name = "library.guard.expensive-queries", defaultValue = "wildcard,fuzzy,except")
+    List<String> expensiveQueries;
+
+    @ConfigProperty(name = "library.guard.max-pattern-length", defaultValue = "256")
+    int maxPatternLength;
+
+    @ConfigProperty(name = "library.guard.max-terms", defaultValue = "10")
+    int maxTerms;
+
+    @ConfigProperty(name = "library.guard.max-wildcards", defaultValue = "4")
+    int maxWildcards;
+
+    @ConfigProperty(name = "library.guard.min-wildcard-literals", defaultValue = "3")
+    int minWildcardLiterals;
+
+    @ConfigProperty(name = "library.guard.min-fuzzy-term-length", defaultValue = "4")
+    int minFuzzyTermLength;
+
+    @ConfigProperty(name = "library.guard.breaker.latency-threshold", defaultValue = "PT0.5S")
+    Duration latencyThreshold;
+
+    @ConfigProperty(name = "library.guard.breaker.open-duration", defaultValue = "PT10S")
+    Duration openDuration;
+
+    private Set<String> expensive;
+
+    private LatencyBreaker breaker;
+
+    @PostConstruct
+    void init() {
+        expensive = new TreeSet<>(expensiveQueries);
+        breaker = new LatencyBreaker(latencyThreshold.toNanos(), openDuration.toNanos(), TimeUnit.NANOSECONDS,
+                System::nanoTime);
+    }
+
+    void bindMetrics(@Observes StartupEvent ev) {
+        FunctionCounter.builder("library.guard.breaker.trips", this, guard -> guard.breaker.trips())
+                .description("Times the latency circuit breaker opened").register(registry);
+        Gauge.builder("library.guard.breaker.open", this,
+                guard -> guard.breaker.state() == LatencyBreaker.State.OPEN ? 1 : 0)
+                .description("1 while expensive queries are shed").register(registry);
+        Gauge.builder("library.guard.breaker.latency", this, guard -> guard.breaker.averageNanos() / 1e9)
+                .description("Moving average of search latency seen by the circuit breaker")
+                .baseUnit("seconds").register(registry);
+    }
+
+    /**
+     * Rejects patterns too long or with too many terms to be searched cheaply.
+     */
+    public void checkPattern(String queryType, String pattern) {
+        if (pattern == null || pattern.trim().isEmpty()) {
+            throw reject(queryType, "complexity", "pattern is required");
+        }
+        if (pattern.length() > maxPatternLength) {
+            throw reject(queryType, "complexity", "pattern must not exceed " + maxPatternLength + " characters");
+        }
+        if (terms(pattern).size() > maxTerms) {
+            throw reject(queryType, "complexity", "pattern must not have more than " + maxTerms + " terms");
+        }
+    }
+
+    /**
+     * Rejects wildcard patterns that would expand to most of the title terms, such as {@code *a*}.
+     */
+    public void checkWildcard(String pattern) {
+        checkPattern("wildcard", pattern);
+        int wildcards = 0;
+        for (Matcher matcher = WILDCARDS.matcher(pattern); matcher.find(); ) {
+            wildcards++;
+        }
+        if (wildcards > maxWildcards) {
+            throw reject("wildcard", "complexity", "pattern must not have more than " + maxWildcards + " wildcards");
+        }
+        int literals = WILDCARDS.matcher(WHITESPACE.matcher(pattern).replaceAll("")).replaceAll("").length();
+        if (literals < minWildcardLiterals) {
+            throw reject("wildcard", "complexity",
+                    "pattern must have at least " + minWildcardLiterals + " characters besides wildcards");
+        }
+    }
+
+    /**
+     * Rejects fuzzy patterns with terms so short that one edit matches almost any term.
+     */
+    public void checkFuzzy(String pattern) {
+        checkPattern("fuzzy", pattern);
+        for (String term : terms(pattern)) {
+            if (term.length() < minFuzzyTermLength) {
+                throw reject("fuzzy", "complexity",
+                        "fuzzy terms must have at least " + minFuzzyTermLength + " characters: " + term);
+            }
+        }
+    }
+
+    /**
+     * Sheds an expensive query while the backend is slow.
+     *
+     * @throws ServiceUnavailableException with a {@code Retry-After} header if the breaker is open
+     */
+    public void admit(String queryType) {
+        if (expensive.contains(queryType) && !breaker.allows()) {
+            count(queryType, "shed");
+            throw new ServiceUnavailableException(breaker.retryAfterSeconds());
+        }
+    }
+
+    /**
+     * Applies the timeout configured for the query type: {@code library.guard.<type>.timeout}, or
+     * {@code library.guard.timeout}; and {@code library.guard.<type>.on-timeout}, {@code truncate} or {@code fail}.
+     */
+    public <H> SearchFetchable<H> limitTime(String queryType, SearchQueryOptionsStep<?, H, ?, ?, ?> query) {
+        long timeout = timeoutMillis(queryType);
+        return failsOnTimeout(queryType)
+                ? query.failAfter(timeout, TimeUnit.MILLISECONDS)
+                : query.truncateAfter(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies the timeout of the query type to a search request body sent without Hibernate Search. Elasticsearch
+     * then returns the hits found so far, flagged {@code timed_out}: see {@link #checkTimedOut}.
+     */
+    public void limitTime(String queryType, JsonObject body) {
+        body.addProperty("timeout", timeoutMillis(queryType) + "ms");
+    }
+
+    /**
+     * Handles the response to a request limited by {@link #limitTime(String, JsonObject)}: feeds the breaker, and
+     * counts a truncated response or fails it, depending on {@code library.guard.<type>.on-timeout}.
+     *
+     * @throws WebApplicationException with status 504 if the search timed out and the query type fails on timeout
+     */
+    public void checkTimedOut(String queryType, JsonObject response, long elapsedNanos) {
+        boolean timedOut = response.has("timed_out") && response.get("timed_out").getAsBoolean();
+        if (timedOut && failsOnTimeout(queryType)) {
+            throw timedOut(queryType, elapsedNanos);
+        }
+        record(TimeUnit.MILLISECONDS.toNanos(response.get("took").getAsLong()));
+        if (timedOut) {
+            truncated(queryType);
+        }
+    }
+
+    private long timeoutMillis(String queryType) {
+        return config.getOptionalValue("library.guard." + queryType + ".timeout", Duration.class)
+                .orElse(defaultTimeout).toMillis();
+    }
+
+    private boolean failsOnTimeout(String queryType) {
+        return "fail".equals(config.getOptionalValue("library.guard." + queryType + ".on-timeout", String.class)
+                .orElse(defaultOnTimeout));
+    }
+
+    void record(long latencyNanos) {
+        breaker.record(latencyNanos);
+    }
+
+    void truncated(String queryType) {
+        registry.counter("library.guard.truncated", "query", queryType).increment();
+    }
+
+    WebApplicationException timedOut(String queryType, long elapsedNanos) {
+        breaker.record(elapsedNanos);
+        count(queryType, "timeout");
+        return new WebApplicationException("Search timed out", Response.Status.GATEWAY_TIMEOUT);
+    }
+
+    private BadRequestException reject(String queryType, String reason, String message) {
+        count(queryType, reason);
+        return new BadRequestException(message);
+    }
+
+    private void count(String queryType, String reason) {
+        registry.counter("library.guard.rejections", "query", queryType, "reason", reason).increment();
+    }
+
+    private static List<String> terms(String pattern) {
+        return Arrays.asList(WHITESPACE.split(pattern.trim()));
+    }
+}
@@ -0,0 +1,20 @@
+package org.acme;
+
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the annotated method outside of any transaction, on a read-only session with flushing disabled.
+ * <p>
+ * Meant for search endpoints: entities loaded from the hits are not snapshotted nor dirty-checked, and a database
+ * connection is only borrowed for the statements that hydrate them, then handed back to the pool right away.
+ * Methods that write must keep using {@link javax.transaction.Transactional} instead.
+ */
+@InterceptorBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ReadOnly {
+}
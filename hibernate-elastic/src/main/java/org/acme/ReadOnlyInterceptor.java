@@ -0,0 +1,48 @@
+package org.acme;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.TransactionManager;
+
+/**
+ * Switches the session of the current request to read-only before a {@link ReadOnly} method runs.
+ * <p>
+ * Without a transaction Quarkus hands out a request-scoped session which releases its connection after each
+ * statement, so searches answered from the index, or from the result cache, never touch the pool at all.
+ */
+@ReadOnly
+@Interceptor
+@Priority(Interceptor.Priority.PLATFORM_BEFORE + 200)
+public class ReadOnlyInterceptor {
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    TransactionManager transactionManager;
+
+    @AroundInvoke
+    Object readOnly(InvocationContext context) throws Exception {
+        if (inTransaction()) {
+            // called from a writing method, don't change the rules of its session
+            return context.proceed();
+        }
+        Session session = entityManager.unwrap(Session.class);
+        session.setDefaultReadOnly(true);
+        session.setHibernateFlushMode(FlushMode.MANUAL);
+        return context.proceed();
+    }
+
+    private boolean inTransaction() throws SystemException {
+        return transactionManager.getStatus() != Status.STATUS_NO_TRANSACTION;
+    }
+}
@@ -0,0 +1,201 @@
+package org.acme;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, in-process cache of search results, keyed on the searched entity type and the normalized query.
+ * <p>
+ * Entries are evicted least-recently-used once {@code library.cache.max-entries} is reached, expire after
+ * {@code library.cache.ttl}, and are invalidated as soon as a write to an entity type they depend on commits.
+ * <p>
+ * Indexing is asynchronous and Elasticsearch only makes changes searchable at its next refresh, so a search right
+ * after a commit may still return the results from before the write. Results of a type loaded less than
+ * {@code library.cache.indexing-delay} after its last write are therefore returned without being cached.
+ */
+@ApplicationScoped
+public class SearchResultCache {
+
+    @ConfigProperty(name = "library.cache.max-entries", defaultValue = "1000")
+    int maxEntries;
+
+    @ConfigProperty(name = "library.cache.ttl", defaultValue = "PT5M")
+    Duration ttl;
+
+    /** Time for a committed write to be indexed and refreshed: the indexing queues plus the refresh interval. */
+    @ConfigProperty(name = "library.cache.indexing-delay", defaultValue = "PT2S")
+    Duration indexingDelay;
+
+    LongSupplier clock = System::nanoTime;
+
+    // bumped on every invalidation, so that a result loaded concurrently with a write is never cached as fresh
+    private final Map<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    // clock time of the last invalidation of each type
+    private final Map<Class<?>, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    // guarded by this
+    private Map<String, Entry> entries;
+
+    public SearchResultCache() {
+    }
+
+    SearchResultCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        this(maxEntries, ttl, Duration.ZERO, clock);
+    }
+
+    SearchResultCache(int maxEntries, Duration ttl, Duration indexingDelay, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.indexingDelay = indexingDelay;
+        this.clock = clock;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached hits of {@code type} for {@code key}, or loads, caches and returns them.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(Class<?> type, String key, Supplier<List<T>> loader) {
+        String cacheKey = cacheKey(type, key);
+        long generation = generation(type).get();
+        synchronized (this) {
+            Entry entry = entries.get(cacheKey);
+            if (entry != null) {
+                if (entry.generation == generation && clock.getAsLong() - entry.expiresAt < 0) {
+                    hits.increment();
+                    return (List<T>) entry.hits;
+                }
+                entries.remove(cacheKey);
+                if (entry.generation == generation) {
+                    evictions.increment();
+                }
+            }
+        }
+        misses.increment();
+        Long lastWrite = lastWrites.get(type);
+        boolean indexed = lastWrite == null || clock.getAsLong() - lastWrite >= indexingDelay.toNanos();
+        List<T> loaded = Collections.unmodifiableList(loader.get());
+        if (!indexed) {
+            // the index may not show the last write yet
+            return loaded;
+        }
+        synchronized (this) {
+            entries.put(cacheKey, new Entry(loaded, generation, clock.getAsLong() + ttl.toNanos()));
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops every cached result of {@code type}.
+     */
+    public void invalidate(Class<?> type) {
+        lastWrites.put(type, clock.getAsLong());
+        generation(type).incrementAndGet();
+        invalidations.increment();
+        String prefix = type.getName() + '|';
+        synchronized (this) {
+            Iterator<String> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) LibraryChange change) {
+        invalidate(change.type);
+        if (change.type == Book.class) {
+            // authors are served with their books
+            invalidate(Author.class);
+        }
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), entries.size());
+    }
+
+    /**
+     * Normalizes a user-entered pattern so that equivalent queries share a cache entry.
+     */
+    static String normalize(String pattern) {
+        return pattern == null ? "" : pattern.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    private AtomicLong generation(Class<?> type) {
+        return generations.computeIfAbsent(type, ignored -> new AtomicLong());
+    }
+
+    private static String cacheKey(Class<?> type, String key) {
+        return type.getName() + '|' + key;
+    }
+
+    private static class Entry {
+
+        final List<?> hits;
+        final long generation;
+        final long expiresAt;
+
+        Entry(List<?> hits, long generation, long expiresAt) {
+            this.hits = hits;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class Stats {
+
+        public long hits;
+
+        public long misses;
+
+        public long evictions;
+
+        public long invalidations;
+
+        public int size;
+
+        public Stats(long hits, long misses, long evictions, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+    }
+}
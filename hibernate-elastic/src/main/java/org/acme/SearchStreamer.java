@@ -0,0 +1,70 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.engine.search.predicate.dsl.PredicateFinalStep;
+import org.hibernate.search.engine.search.predicate.dsl.SearchPredicateFactory;
+import org.hibernate.search.engine.search.query.SearchScroll;
+import org.hibernate.search.engine.search.query.SearchScrollResult;
+import org.hibernate.search.engine.search.sort.dsl.SearchSortFactory;
+import org.hibernate.search.engine.search.sort.dsl.SortFinalStep;
+import org.hibernate.search.mapper.orm.session.SearchSession;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Function;
+
+/**
+ * Writes search hits as newline-delimited JSON, one scroll chunk at a time.
+ * <p>
+ * Each chunk is serialized, flushed to the client and then detached from the persistence context,
+ * so memory stays bounded by the chunk size rather than by the total number of hits.
+ * <p>
+ * The scroll goes through the {@link QueryGuard}: it may be shed, and each chunk runs with the timeout of the query type.
+ */
+@ApplicationScoped
+public class SearchStreamer {
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final int NEWLINE = '\n';
+
+    @Inject
+    SearchSession searchSession;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    QueryGuard guard;
+
+    @ConfigProperty(name = "library.stream.chunk-size", defaultValue = "500")
+    int chunkSize;
+
+    @ReadOnly
+    public <T> void write(String queryType, Class<T> type,
+                          Function<SearchPredicateFactory, PredicateFinalStep> predicate,
+                          Function<SearchSortFactory, SortFinalStep> sort,
+                          OutputStream output) throws IOException {
+        guard.admit(queryType);
+        try (SearchScroll<T> scroll = guard.limitTime(queryType, searchSession.search(type)
+                .where(predicate)
+                .sort(sort))
+                .scroll(chunkSize)) {
+            for (SearchScrollResult<T> chunk = scroll.next(); chunk.hasHits(); chunk = scroll.next()) {
+                if (chunk.timedOut()) {
+                    guard.truncated(queryType);
+                }
+                for (T hit : chunk.hits()) {
+                    output.write(objectMapper.writeValueAsBytes(hit));
+                    output.write(NEWLINE);
+                }
+                output.flush();
+                // hits of this chunk are already on the wire, don't keep them managed
+                searchSession.toEntityManager().clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.backend.elasticsearch.ElasticsearchExtension;
+import org.hibernate.search.backend.elasticsearch.search.query.ElasticsearchSearchResult;
+import org.hibernate.search.mapper.orm.session.SearchSession;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Typeahead suggestions served by the Elasticsearch completion suggester.
+ * <p>
+ * Completion fields are held in memory as FSTs, so a lookup costs a walk down the prefix rather than a query:
+ * no scoring, no term dictionary scan and no entity loading. Each suggestion is built from the document source.
+ * Lookups run through {@link LibraryMetrics} as query type {@code suggest}, with its timeout and circuit breaker.
+ */
+@ApplicationScoped
+public class Suggester {
+
+    private static final String SUGGESTION = "suggestion";
+
+    private static final int MAX_SIZE = 100;
+
+    @Inject
+    SearchSession searchSession;
+
+    @Inject
+    LibraryMetrics metrics;
+
+    @ConfigProperty(name = "library.suggest.size", defaultValue = "10")
+    int defaultSize;
+
+    public List<Suggestion> suggestAuthors(String prefix, Optional<Integer> size) {
+        return suggest(Author.class, "name_suggest", prefix, size,
+                source -> fullName(DocumentSource.string(source, "firstName"), DocumentSource.string(source, "lastName")),
+                "firstName", "lastName");
+    }
+
+    public List<Suggestion> suggestBooks(String prefix, Optional<Integer> size) {
+        return suggest(Book.class, "title_suggest", prefix, size,
+                source -> DocumentSource.string(source, "title"),
+                "title");
+    }
+
+    private static String fullName(String firstName, String lastName) {
+        if (firstName == null || lastName == null) {
+            return firstName == null ? lastName : firstName;
+        }
+        return firstName + " " + lastName;
+    }
+
+    private List<Suggestion> suggest(Class<?> type, String field, String prefix, Optional<Integer> size,
+                                     Function<JsonObject, String> text, String... sourceFields) {
+        List<Suggestion> suggestions = new ArrayList<>();
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return suggestions;
+        }
+        JsonObject completion = new JsonObject();
+        completion.addProperty("field", field);
+        completion.addProperty("size", Math.max(1, Math.min(size.orElse(defaultSize), MAX_SIZE)));
+        completion.addProperty("skip_duplicates", true);
+        JsonObject suggestion = new JsonObject();
+        suggestion.addProperty("prefix", prefix.trim());
+        suggestion.add("completion", completion);
+        JsonArray source = new JsonArray();
+        for (String sourceField : sourceFields) {
+            source.add(sourceField);
+        }
+        ElasticsearchSearchResult<?> result = (ElasticsearchSearchResult<?>) metrics.fetch("suggest",
+                searchSession.search(type)
+                        .extension(ElasticsearchExtension.get())
+                        .where(f -> f.matchAll())
+                        .requestTransformer(context -> {
+                            JsonObject suggest = new JsonObject();
+                            suggest.add(SUGGESTION, suggestion);
+                            context.body().add("suggest", suggest);
+                            context.body().add("_source", source);
+                        }),
+                null, 0);
+        JsonObject response = result.responseBody();
+        if (!response.has("suggest")) {
+            // truncated by the timeout before the suggester answered
+            return suggestions;
+        }
+        for (JsonElement entry : response.getAsJsonObject("suggest").getAsJsonArray(SUGGESTION)) {
+            for (JsonElement option : entry.getAsJsonObject().getAsJsonArray("options")) {
+                JsonObject hit = option.getAsJsonObject();
+                suggestions.add(new Suggestion(hit.get("_id").getAsLong(), text.apply(hit.getAsJsonObject("_source"))));
+            }
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,16 @@
+package org.acme;
+
+/**
+ * One typeahead suggestion: the id of the suggested author or book, and the text to display.
+ */
+public class Suggestion {
+
+    public Long id;
+
+    public String text;
+
+    public Suggestion(Long id, String text) {
+        this.id = id;
+        this.text = text;
+    }
+}
@@ -0,0 +1,111 @@
+package org.acme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.search.backend.elasticsearch.ElasticsearchExtension;
+import org.hibernate.search.mapper.orm.common.EntityReference;
+import org.hibernate.search.mapper.orm.session.SearchSession;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches authors and books in one multi-index request, ranked together by relevance.
+ * <p>
+ * Name and title fields only exist in one of the two indexes, so the query is written in the Elasticsearch DSL:
+ * each index simply ignores the fields it doesn't have. Fields are boosted as configured, and the top hits can be
+ * rescored so that the words of the pattern appearing close together rank first. Hits are read from the document
+ * source, without touching the database.
+ */
+@ApplicationScoped
+public class UnifiedSearcher {
+
+    @Inject
+    SearchSession searchSession;
+
+    @Inject
+    LibraryMetrics metrics;
+
+    @ConfigProperty(name = "library.unified.boost.first-name", defaultValue = "1.0")
+    float firstNameBoost;
+
+    @ConfigProperty(name = "library.unified.boost.last-name", defaultValue = "2.0")
+    float lastNameBoost;
+
+    @ConfigProperty(name = "library.unified.boost.title", defaultValue = "1.5")
+    float titleBoost;
+
+    @ConfigProperty(name = "library.unified.rescore.window-size", defaultValue = "50")
+    int defaultWindowSize;
+
+    @ConfigProperty(name = "library.unified.rescore.slop", defaultValue = "2")
+    int slop;
+
+    @ConfigProperty(name = "library.unified.rescore.weight", defaultValue = "2.0")
+    float rescoreWeight;
+
+    /**
+     * @param windowSize number of top hits rescored by phrase proximity, the configured default if {@code null},
+     *                   no rescoring if {@code 0}
+     */
+    public List<LibraryHit> search(String pattern, int size, Integer windowSize) {
+        JsonArray fields = fields();
+        JsonObject simpleQueryString = new JsonObject();
+        simpleQueryString.addProperty("query", pattern);
+        simpleQueryString.add("fields", fields);
+        JsonObject query = new JsonObject();
+        query.add("simple_query_string", simpleQueryString);
+        JsonObject rescore = rescore(pattern, fields, windowSize == null ? defaultWindowSize : windowSize);
+        return metrics.fetchHits("unified", searchSession.search(Arrays.<Class<?>>asList(Author.class, Book.class))
+                .extension(ElasticsearchExtension.get())
+                .select(f -> f.composite(UnifiedSearcher::hit, f.entityReference(), f.score(), f.source()))
+                .where(f -> f.fromJson(query))
+                .requestTransformer(context -> {
+                    if (rescore != null) {
+                        context.body().add("rescore", rescore);
+                    }
+                }), size);
+    }
+
+    private JsonArray fields() {
+        JsonArray fields = new JsonArray();
+        fields.add("firstName^" + firstNameBoost);
+        fields.add("lastName^" + lastNameBoost);
+        fields.add("title^" + titleBoost);
+        return fields;
+    }
+
+    private JsonObject rescore(String pattern, JsonArray fields, int windowSize) {
+        if (windowSize <= 0) {
+            return null;
+        }
+        JsonObject multiMatch = new JsonObject();
+        multiMatch.addProperty("query", pattern);
+        multiMatch.add("fields", fields);
+        multiMatch.addProperty("type", "phrase");
+        multiMatch.addProperty("slop", slop);
+        JsonObject rescoreQuery = new JsonObject();
+        rescoreQuery.add("multi_match", multiMatch);
+        JsonObject query = new JsonObject();
+        query.add("rescore_query", rescoreQuery);
+        query.addProperty("rescore_query_weight", rescoreWeight);
+        JsonObject rescore = new JsonObject();
+        rescore.addProperty("window_size", windowSize);
+        rescore.add("query", query);
+        return rescore;
+    }
+
+    private static LibraryHit hit(EntityReference reference, Float score, JsonObject source) {
+        Long id = (Long) reference.id();
+        LibraryHit hit = new LibraryHit(reference.name(), id, score);
+        if (reference.type() == Author.class) {
+            hit.author = AuthorView.fromSource(id, source);
+        } else {
+            hit.book = BookView.fromSource(id, source);
+        }
+        return hit;
+    }
+}
@@ -0,0 +1,55 @@
+package org.acme;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class BlueGreenReindexerTest {
+
+    @Test
+    public void testNextIndexName() {
+        assertEquals("book-000002", BlueGreenReindexer.nextIndexName("book", "book-000001"));
+        assertEquals("book-000011", BlueGreenReindexer.nextIndexName("book", "book-000010"));
+        assertEquals("book-000002", BlueGreenReindexer.nextIndexName("book", "book"));
+    }
+
+    @Test
+    public void testCreationTakesMappingAndAnalysisFromHibernateSearch() {
+        JsonObject existing = JsonParser.parseString("{"
+                + "\"aliases\": {\"book-read\": {}, \"book-write\": {\"is_write_index\": true}},"
+                + "\"mappings\": {\"dynamic\": \"strict\", \"properties\": {\"title\": {\"type\": \"text\"}}},"
+                + "\"settings\": {\"index\": {\"number_of_shards\": \"1\", \"uuid\": \"x\", \"creation_date\": \"1\","
+                + "\"analysis\": {\"analyzer\": {\"english\": {\"type\": \"custom\"}}}}}}").getAsJsonObject();
+        JsonObject expected = JsonParser.parseString("{"
+                + "\"mappings\": {\"dynamic\": \"strict\", \"properties\": {\"title\": {\"type\": \"text\"},"
+                + "\"title_ngram\": {\"type\": \"text\"}}},"
+                + "\"settings\": {\"analysis\": {\"analyzer\": {\"english\": {\"type\": \"custom\"},"
+                + "\"title_ngram\": {\"type\": \"custom\"}}}}}").getAsJsonObject();
+
+        JsonObject creation = BlueGreenReindexer.creation(existing, expected);
+
+        assertFalse(creation.has("aliases"));
+        assertEquals(expected.get("mappings"), creation.get("mappings"));
+        assertEquals(JsonParser.parseString("{\"index\": {\"number_of_shards\": \"1\","
+                        + "\"analysis\": {\"analyzer\": {\"english\": {\"type\": \"custom\"},"
+                        + "\"title_ngram\": {\"type\": \"custom\"}}}}}"),
+                creation.get("settings"));
+    }
+
+    @Test
+    public void testMirroredSourceKeepsTheFieldsOfTheOldMapping() {
+        JsonObject existing = JsonParser.parseString("{"
+                + "\"mappings\": {\"dynamic\": \"strict\", \"properties\": {\"title\": {\"type\": \"text\"},"
+                + "\"authors\": {\"type\": \"nested\"}}}}").getAsJsonObject();
+        JsonObject source = JsonParser.parseString("{\"title\": \"Dune\", \"title_ngram\": \"Dune\","
+                + "\"authors\": [{\"firstName\": \"Frank\"}]}").getAsJsonObject();
+
+        JsonObject retained = BlueGreenReindexer.retain(source, BlueGreenReindexer.fieldsOf(existing));
+
+        assertEquals(JsonParser.parseString("{\"title\": \"Dune\", \"authors\": [{\"firstName\": \"Frank\"}]}"),
+                retained);
+    }
+}
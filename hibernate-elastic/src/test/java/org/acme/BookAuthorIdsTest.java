@@ -0,0 +1,63 @@
+package org.acme;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BookAuthorIdsTest {
+
+    @Test
+    public void testFirstPageHasNoAfterKey() {
+        JsonObject composite = BookAuthorIds.page(null).getAsJsonObject("composite");
+        assertFalse(composite.has("after"));
+        assertEquals(BookAuthorIds.PAGE_SIZE, composite.get("size").getAsInt());
+    }
+
+    @Test
+    public void testNextPageResumesAfterKey() {
+        JsonElement afterKey = JsonParser.parseString("{\"authorId\":7}");
+        assertEquals(afterKey, BookAuthorIds.page(afterKey).getAsJsonObject("composite").get("after"));
+    }
+
+    @Test
+    public void testCollectsIdsAndReturnsNextKey() {
+        Set<Long> ids = new LinkedHashSet<>();
+        JsonElement next = BookAuthorIds.collect(page("{\"authorId\":2}", 1, 2), ids, 10);
+        assertEquals(Arrays.asList(1L, 2L), Arrays.asList(ids.toArray()));
+        assertEquals(JsonParser.parseString("{\"authorId\":2}"), next);
+    }
+
+    @Test
+    public void testStopsAfterLastPage() {
+        Set<Long> ids = new LinkedHashSet<>();
+        assertNull(BookAuthorIds.collect(page("{\"authorId\":2}"), ids, 10));
+        assertTrue(ids.isEmpty());
+    }
+
+    @Test
+    public void testStopsAtMax() {
+        Set<Long> ids = new LinkedHashSet<>();
+        assertNull(BookAuthorIds.collect(page("{\"authorId\":3}", 1, 2, 3), ids, 2));
+        assertEquals(2, ids.size());
+    }
+
+    private static JsonObject page(String afterKey, long... ids) {
+        StringBuilder buckets = new StringBuilder();
+        for (long id : ids) {
+            buckets.append(buckets.length() == 0 ? "" : ",")
+                    .append("{\"key\":{\"authorId\":").append(id).append("},\"doc_count\":1}");
+        }
+        return JsonParser.parseString("{\"after_key\":" + afterKey + ",\"buckets\":[" + buckets + "]}")
+                .getAsJsonObject();
+    }
+}
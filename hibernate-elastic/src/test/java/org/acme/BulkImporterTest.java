@@ -0,0 +1,59 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkImporterTest {
+
+    @Test
+    public void testPlainCsvLine() {
+        assertArrayEquals(new String[]{"The Stand", "5"}, BulkImporter.parseCsvLine("The Stand,5", 2));
+    }
+
+    @Test
+    public void testQuotedCsvLine() {
+        assertArrayEquals(new String[]{"Harry Potter, \"Philosopher's\" Stone", "4"},
+                BulkImporter.parseCsvLine("\"Harry Potter, \"\"Philosopher's\"\" Stone\",4", 2));
+    }
+
+    @Test
+    public void testMissingAndExtraColumns() {
+        assertArrayEquals(new String[]{"Paul", null}, BulkImporter.parseCsvLine("Paul", 2));
+        assertArrayEquals(new String[]{"Paul", "Auster"}, BulkImporter.parseCsvLine("Paul,Auster,extra", 2));
+    }
+
+    @Test
+    public void testJsonElementsThatAreNotObjectsAreSkipped() throws IOException {
+        BulkImporter.RowReader reader = jsonReader("[{\"title\": \"It\", \"authorId\": 5}, 7, [1, [2]],"
+                + " {\"title\": \"Carrie\"}]");
+
+        assertArrayEquals(new String[]{"It", "5"}, reader.next());
+        assertThrows(BulkImporter.InvalidRowException.class, reader::next);
+        assertThrows(BulkImporter.InvalidRowException.class, reader::next);
+        assertArrayEquals(new String[]{"Carrie", null}, reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testMalformedJsonStopsTheReader() throws IOException {
+        BulkImporter.RowReader reader = jsonReader("[{\"title\": \"It\", \"authorId\": 5}, {\"title\" \"Carrie\"}]");
+
+        assertArrayEquals(new String[]{"It", "5"}, reader.next());
+        IOException e = assertThrows(IOException.class, reader::next);
+        assertFalse(e instanceof BulkImporter.InvalidRowException);
+    }
+
+    private static BulkImporter.RowReader jsonReader(String json) throws IOException {
+        return BulkImporter.jsonReader(new ObjectMapper(),
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), new String[]{"title", "authorId"});
+    }
+}
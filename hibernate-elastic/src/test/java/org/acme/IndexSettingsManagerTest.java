@@ -0,0 +1,32 @@
+package org.acme;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class IndexSettingsManagerTest {
+
+    @Test
+    public void testTemplateMatchesVersionedIndexesOnly() {
+        JsonObject template = IndexSettingsManager.template("book", 2, 0, "5s");
+
+        assertEquals(JsonParser.parseString("{\"index_patterns\": [\"book-0*\"], \"settings\": {\"index\": {"
+                        + "\"number_of_shards\": 2, \"number_of_replicas\": 0, \"refresh_interval\": \"5s\"}}}"),
+                template);
+    }
+
+    @Test
+    public void testSettingFallsBackToDefaults() {
+        JsonObject response = JsonParser.parseString("{"
+                + "\"settings\": {\"index\": {\"number_of_shards\": \"3\"}},"
+                + "\"defaults\": {\"index\": {\"number_of_shards\": \"1\", \"refresh_interval\": \"1s\"}}}")
+                .getAsJsonObject();
+
+        assertEquals("3", IndexSettingsManager.setting(response, "number_of_shards"));
+        assertEquals("1s", IndexSettingsManager.setting(response, "refresh_interval"));
+        assertNull(IndexSettingsManager.setting(response, "max_result_window"));
+    }
+}
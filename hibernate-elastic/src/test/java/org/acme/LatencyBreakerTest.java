@@ -0,0 +1,62 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final LatencyBreaker breaker = new LatencyBreaker(100, 10_000, TimeUnit.MILLISECONDS, now::get);
+
+    @Test
+    public void testSingleSlowQueryDoesNotTrip() {
+        for (int i = 0; i < 10; i++) {
+            breaker.record(ms(20));
+        }
+        breaker.record(ms(300));
+        assertTrue(breaker.allows());
+        assertEquals(0, breaker.trips());
+    }
+
+    @Test
+    public void testSustainedLatencyTripsUntilOpenDurationIsOver() {
+        for (int i = 0; i < 5; i++) {
+            breaker.record(ms(300));
+        }
+        assertFalse(breaker.allows());
+        assertEquals(1, breaker.trips());
+        assertEquals(10, breaker.retryAfterSeconds());
+
+        now.addAndGet(ms(10_000));
+        assertTrue(breaker.allows());
+        assertEquals(LatencyBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    @Test
+    public void testHalfOpenClosesOnFastSampleAndReopensOnSlowOne() {
+        breaker.record(ms(300));
+        now.addAndGet(ms(10_000));
+        assertTrue(breaker.allows());
+        breaker.record(ms(20));
+        assertEquals(LatencyBreaker.State.CLOSED, breaker.state());
+
+        breaker.record(ms(1000));
+        breaker.record(ms(1000));
+        now.addAndGet(ms(10_000));
+        assertTrue(breaker.allows());
+        breaker.record(ms(300));
+        assertFalse(breaker.allows());
+        assertEquals(3, breaker.trips());
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
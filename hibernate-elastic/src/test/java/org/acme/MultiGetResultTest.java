@@ -0,0 +1,34 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MultiGetResultTest {
+
+    @Test
+    public void testHitsFollowRequestedOrder() {
+        MultiGetResult<Long> result = MultiGetResult.inRequestedOrder(Arrays.asList(3L, 1L, 2L),
+                Arrays.asList(1L, 2L, 3L), hit -> hit);
+        assertEquals(Arrays.asList(3L, 1L, 2L), result.hits);
+        assertEquals(Collections.emptyList(), result.missing);
+    }
+
+    @Test
+    public void testMissingIdsAreReported() {
+        MultiGetResult<Long> result = MultiGetResult.inRequestedOrder(Arrays.asList(4L, 1L, 5L),
+                Collections.singletonList(1L), hit -> hit);
+        assertEquals(Collections.singletonList(1L), result.hits);
+        assertEquals(Arrays.asList(4L, 5L), result.missing);
+    }
+
+    @Test
+    public void testDuplicateIdsRepeatTheirHit() {
+        MultiGetResult<Long> result = MultiGetResult.inRequestedOrder(Arrays.asList(2L, 2L),
+                Collections.singletonList(2L), hit -> hit);
+        assertEquals(Arrays.asList(2L, 2L), result.hits);
+    }
+}
@@ -0,0 +1,92 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SearchResultCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final SearchResultCache cache = new SearchResultCache(2, Duration.ofSeconds(10), now::get);
+
+    private List<String> load(String... hits) {
+        loads.incrementAndGet();
+        return Arrays.asList(hits);
+    }
+
+    @Test
+    public void testHitAfterMiss() {
+        assertEquals(Collections.singletonList("Dune"), cache.get(Book.class, "dune", () -> load("Dune")));
+        assertEquals(Collections.singletonList("Dune"), cache.get(Book.class, "dune", () -> load("other")));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.stats().hits);
+        assertEquals(1, cache.stats().misses);
+    }
+
+    @Test
+    public void testExpiry() {
+        cache.get(Book.class, "dune", () -> load("Dune"));
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        cache.get(Book.class, "dune", () -> load("Dune"));
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.stats().evictions);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        cache.get(Book.class, "a", () -> load("a"));
+        cache.get(Book.class, "b", () -> load("b"));
+        cache.get(Book.class, "a", () -> load("a"));
+        cache.get(Book.class, "c", () -> load("c"));
+        assertEquals(2, cache.stats().size);
+        assertEquals(1, cache.stats().evictions);
+        cache.get(Book.class, "a", () -> load("a"));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testInvalidationIsPerType() {
+        cache.get(Book.class, "dune", () -> load("Dune"));
+        cache.get(Author.class, "herbert", () -> load("Herbert"));
+        cache.invalidate(Book.class);
+        cache.get(Book.class, "dune", () -> load("Dune"));
+        cache.get(Author.class, "herbert", () -> load("Herbert"));
+        assertEquals(3, loads.get());
+        assertEquals(1, cache.stats().invalidations);
+    }
+
+    @Test
+    public void testResultLoadedDuringWriteIsNotServedAfterIt() {
+        cache.get(Book.class, "dune", () -> {
+            cache.invalidate(Book.class);
+            return load("stale");
+        });
+        assertEquals(Collections.singletonList("fresh"), cache.get(Book.class, "dune", () -> load("fresh")));
+    }
+
+    @Test
+    public void testResultLoadedBeforeTheWriteIsIndexedIsNotCached() {
+        SearchResultCache delayed = new SearchResultCache(2, Duration.ofSeconds(10), Duration.ofSeconds(2), now::get);
+        delayed.invalidate(Book.class);
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        delayed.get(Book.class, "dune", () -> load("stale"));
+        assertEquals(Collections.singletonList("fresh"), delayed.get(Book.class, "dune", () -> load("fresh")));
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        delayed.get(Book.class, "dune", () -> load("fresh"));
+        delayed.get(Book.class, "dune", () -> load("other"));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("dune messiah", SearchResultCache.normalize("  Dune \t MESSIAH "));
+    }
+}
@@ -0,0 +1,53 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WildcardSegmentsTest {
+
+    @Test
+    public void testInfixAndPrefixPatterns() {
+        assertEquals(Collections.singletonList("otte"), LibraryResource.wildcardSegments("*otte*"));
+        assertEquals(Collections.singletonList("Harry"), LibraryResource.wildcardSegments("Harry*"));
+        assertEquals(Arrays.asList("har", "pott"), LibraryResource.wildcardSegments("har*pott??"));
+    }
+
+    @Test
+    public void testSegmentSpanningWords() {
+        assertEquals(Collections.singletonList("ark for"), LibraryResource.wildcardSegments("*ark for*"));
+    }
+
+    @Test
+    public void testShortWordsFallBackToWildcard() {
+        assertEquals(Collections.emptyList(), LibraryResource.wildcardSegments("*ot*"));
+        assertEquals(Collections.emptyList(), LibraryResource.wildcardSegments("harry*r"));
+        assertEquals(Collections.emptyList(), LibraryResource.wildcardSegments("*"));
+    }
+
+    @Test
+    public void testRegexKeepsAnchoringOrderAndArity() {
+        assertTrue(matches("Harry*", "Harry Potter"));
+        assertFalse(matches("Harry*", "The Oharry Tale"));
+        assertTrue(matches("har*pott??", "Harpotter"));
+        assertFalse(matches("har*pott??", "Harpott"));
+        assertFalse(matches("har*pott??", "Potter Harry"));
+        assertTrue(matches("*ark for*", "The Dark Forest"));
+        assertTrue(matches("*otte*", "A Pottery Class"));
+    }
+
+    @Test
+    public void testRegexIgnoresCaseAndAccents() {
+        assertTrue(matches("*eleve*", "Mon \u00c9l\u00e8ve"));
+        assertTrue(matches("*(1)*", "Volume (1)"));
+    }
+
+    private static boolean matches(String pattern, String title) {
+        return LibraryResource.wildcardRegex(pattern).matcher(LibraryResource.fold(title)).find();
+    }
+}